@@ -0,0 +1,108 @@
+package bench.huffman;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.SplittableRandom;
+
+/**
+ * Reproducible corpus generators for the Huffman benchmarks. The same
+ * (size, alphabet, seed) always yields the same corpus, so results can be
+ * compared across runs and machines.
+ */
+public final class CorpusGenerator {
+
+    // System property naming a UTF-8 file to use as the real-text source
+    public static final String REAL_TEXT_PROPERTY = "huffman.bench.corpus";
+
+    private static final String[] WORDS = (
+            "the of and to a in is it you that he was for on are with as I his they be at one have this " +
+            "from or had by hot word but what some we can out other were all there when up use your how " +
+            "said an each she which do their time if will way about many then them write would like so " +
+            "these her long make thing see him two has look more day could go come did number sound no " +
+            "most people my over know water than call first who may down side been now find any new work " +
+            "part take get place made live where after back little only round man year came show every " +
+            "good me give our under name very through just form sentence great think say help low line").split(" ");
+
+    private CorpusGenerator () {
+    }
+
+    /**
+     * Generates length characters drawn from an alphabet of alphabetSize
+     * symbols (starting at 'A' for small alphabets, at U+0100 for larger ones)
+     * with a Zipf-like (1/rank) distribution, the usual shape of symbol
+     * frequencies in real data.
+     */
+    public static String zipf (int length, int alphabetSize, long seed) {
+
+        char first = alphabetSize <= 26 ? 'A' : (char) 0x100;
+        double[] cumulative = new double[alphabetSize];
+        double total = 0;
+        for (int rank = 0; rank < alphabetSize; rank++) {
+            total += 1.0 / (rank + 1);
+            cumulative[rank] = total;
+        }
+
+        SplittableRandom random = new SplittableRandom(seed);
+        char[] corpus = new char[length];
+        for (int i = 0; i < length; i++) {
+            double target = random.nextDouble() * total;
+            int low = 0;
+            int high = alphabetSize - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (cumulative[mid] < target) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            corpus[i] = (char) (first + low);
+        }
+        return new String(corpus);
+    }
+
+    /**
+     * Generates length characters of English-like text: if the system property
+     * huffman.bench.corpus names a file, its text is repeated; otherwise words
+     * of a fixed vocabulary are drawn with a Zipf-like distribution.
+     */
+    public static String text (int length, long seed) {
+
+        String source = System.getProperty(REAL_TEXT_PROPERTY);
+        if (source != null) {
+            try {
+                String text = new String(Files.readAllBytes(Paths.get(source)), StandardCharsets.UTF_8);
+                StringBuilder corpus = new StringBuilder(length);
+                while (corpus.length() < length && !text.isEmpty()) {
+                    corpus.append(text, 0, Math.min(text.length(), length - corpus.length()));
+                }
+                return corpus.toString();
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot read " + REAL_TEXT_PROPERTY + " = " + source, e);
+            }
+        }
+
+        String ranks = zipf(length / 4 + 1, Math.min(WORDS.length, Character.MAX_VALUE), seed);
+        StringBuilder corpus = new StringBuilder(length);
+        int sentenceLength = 0;
+        for (int i = 0; corpus.length() < length; i++) {
+            String word = WORDS[(ranks.charAt(i % ranks.length()) - (WORDS.length <= 26 ? 'A' : 0x100))];
+            if (sentenceLength == 0) {
+                word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+            }
+            corpus.append(word);
+            sentenceLength++;
+            if (sentenceLength > 12 && (i % 7) == 0) {
+                corpus.append(".\n");
+                sentenceLength = 0;
+            } else {
+                corpus.append(' ');
+            }
+        }
+        corpus.setLength(length);
+        return corpus.toString();
+    }
+
+}
@@ -0,0 +1,111 @@
+package bench.huffman;
+
+import main.huffman.Huffman;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for Huffman model construction, compression and
+ * decompression over reproducible corpora of 1 KB to 100 MB characters and
+ * alphabets of 2 to 10k symbols (alphabet 0 selects English-like text).
+ * <p>
+ * Besides the operation rate, every benchmark reports a "bytes" rate
+ * counting the UTF-8 size of the input processed (compress, build) or the
+ * compressed bytes consumed (decompress), i.e. throughput in bytes/s, so
+ * ratios against the compressed size hold for non-ASCII alphabets too. Run it
+ * with the GC profiler to also get the allocation rate per operation:
+ * <pre>
+ *   javac -cp jmh-core.jar:jmh-generator-annprocess.jar -d out \
+ *         src/main/huffman/*.java src/bench/huffman/*.java
+ *   java -Xmx4g -cp out:jmh-core.jar:jopt-simple.jar:commons-math3.jar \
+ *         org.openjdk.jmh.Main bench.huffman -prof gc -p corpusSize=1024,1048576
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+@State(Scope.Benchmark)
+public class HuffmanBenchmark {
+
+    @Param({"1024", "1048576", "104857600"})
+    public int corpusSize;
+
+    @Param({"0", "2", "64", "10000"})
+    public int alphabetSize;
+
+    @Param({"42"})
+    public long seed;
+
+    private String corpus;
+    // The corpus's size encoded as UTF-8, which is what the "bytes" rate counts
+    private long corpusBytes;
+    private Huffman model;
+    private byte[] compressed;
+
+    /**
+     * Processed-bytes counter, reported by JMH as a rate next to ops/s.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset () {
+            bytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp () {
+
+        corpus = alphabetSize == 0
+                ? CorpusGenerator.text(corpusSize, seed)
+                : CorpusGenerator.zipf(corpusSize, alphabetSize, seed);
+        corpusBytes = corpus.getBytes(StandardCharsets.UTF_8).length;
+        model = new Huffman(corpus);
+        compressed = model.compress(corpus);
+    }
+
+    @Benchmark
+    public Huffman buildModel (Bytes counter) {
+        counter.bytes += corpusBytes;
+        return new Huffman(corpus);
+    }
+
+    @Benchmark
+    public byte[] compress (Bytes counter) {
+        counter.bytes += corpusBytes;
+        return model.compress(corpus);
+    }
+
+    @Benchmark
+    public String decompress (Bytes counter) {
+        counter.bytes += compressed.length;
+        return model.decompress(compressed);
+    }
+
+    @Benchmark
+    public long estimateCompressedBits (Bytes counter) {
+        counter.bytes += corpusBytes;
+        return model.estimateCompressedBits(corpus);
+    }
+
+}
@@ -4,6 +4,27 @@ import test.huffman.HuffmanTests;
 
 import java.util.*;
 import java.io.ByteArrayOutputStream; // Optional
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32C;
 
 /**
  * Huffman instances provide reusable Huffman Encoding Maps for
@@ -17,10 +38,41 @@ public class Huffman {
     // -----------------------------------------------
 
     private HuffNode trieRoot;
-    // TreeMap chosen here just to make debugging easier
+    // TreeMap chosen here just to make debugging easier; null for models made by buildLinear
     private TreeMap<Character, String> encodingMap;
+    // True for models made by buildLinear, whose codes are canonical rather than the trie's
+    private boolean linear;
+    private int symbolCount;
+    // Character frequencies the trie was built from, in tie-breaking order
+    private Map<Character, Integer> frequencyMap;
+    // Hash of the frequencyMap identifying this model in metrics and JFR events
+    private long modelId;
     // Character that represents the end of a compressed transmission
-    private static final char ETB_CHAR = 23;
+    static final char ETB_CHAR = 23;
+    // Messages per task when a batch is spread over a thread pool
+    private static final int BATCH_CHUNK_SIZE = 512;
+    // Blocks per task when framed blocks are decoded on a thread pool, and the
+    // bytes of the two CRC32C checksums following each frame's header
+    private static final int FRAMES_PER_TASK = 4;
+    private static final int FRAME_CHECKSUMS_SIZE = 8;
+    // Leading int of every serialized model ("HUFM"), or of one made by buildLinear ("HUFL")
+    private static final int MODEL_MAGIC = 0x4855464D;
+    private static final int LINEAR_MODEL_MAGIC = 0x4855464C;
+    // Code length (-1 when absent) and right-aligned code bits of every
+    // character in the encodingMap, indexed by the character itself
+    private int[] codeLengths;
+    private long[] codeBits;
+    // The Huffman Trie flattened into child slots: node i's children are at
+    // 2i (bit 0) and 2i + 1 (bit 1), holding either an internal node index or,
+    // for leaves, the bitwise complement of the leaf's character
+    private int[] decodeTable;
+    // Decodes the next lookupBits bits at once: entries hold the character in
+    // the upper bits and its code length in the low byte, or, for prefixes of
+    // longer codes, the decodeTable node reached with a code length of 0
+    private int[] lookupTable;
+    private int lookupBits;
+    // Widest lookupTable used, trading table size against per-bit walking
+    private static final int MAX_LOOKUP_BITS = 11;
 
     /**
      * Creates the Huffman Trie and Encoding Map using the character
@@ -32,27 +84,80 @@ public class Huffman {
      *        differ.
      */
     public Huffman (String corpus) {
+        this(countFrequencies(corpus));
+    }
 
-        // Creates a list containing one of each unique character in the given corpus:
-        ArrayList<Character> charList = new ArrayList<>();
-        for (int i = 0; i < corpus.length(); i++) {
-            char temp = corpus.charAt(i);
-            if ( !(charList.contains(temp)) ) {
-                charList.add(temp);
-            }
+    /**
+     * Creates the Huffman Trie and Encoding Map from already aggregated
+     * character frequencies, e.g. those produced by a {@link HuffmanTrainer}
+     * over many samples or read back with {@link #readModel(InputStream)}.
+     * @param frequencies Map of each character to its (positive) frequency.
+     *        Ties between equal frequencies are broken by the map's iteration
+     *        order, so the same ordered map always yields the same codes.
+     */
+    public Huffman (Map<Character, Integer> frequencies) {
+        this(frequencies, false);
+    }
+
+    /**
+     * Creates a model whose codes are built in linear time from frequencies
+     * sorted once as primitives, using the two-queue method over parallel
+     * arrays instead of a PriorityQueue of HuffNodes. The codes are canonical
+     * (shorter codes first, then by character), so although their lengths are
+     * just as optimal, they generally differ from those of
+     * {@link #Huffman(Map)}; both sides of a transmission must build their
+     * model the same way, which writeModel and readModel preserve.
+     * @param frequencies Map of each character to its (positive) frequency.
+     * @return The Huffman model.
+     */
+    public static Huffman buildLinear (Map<Character, Integer> frequencies) {
+        return new Huffman(frequencies, true);
+    }
+
+    /**
+     * Counts the characters of corpus as {@link #Huffman(String)} does and
+     * builds a model from them with {@link #buildLinear(Map)}.
+     * @param corpus A String representing a message / document corpus.
+     * @return The Huffman model.
+     */
+    public static Huffman buildLinear (String corpus) {
+        return new Huffman(countFrequencies(corpus), true);
+    }
+
+    private Huffman (Map<Character, Integer> frequencies, boolean linear) {
+
+        long startNanos = System.nanoTime();
+        HuffmanEvents.Build event = new HuffmanEvents.Build();
+        event.begin();
+
+        this.linear = linear;
+        if (linear) {
+            frequencyMap = new LinkedHashMap<>(frequencies);
+            buildLinearCodeTables();
+        } else {
+            buildTrie(frequencies);
         }
 
-        // Generates a Map with each unique character in the corpus paired with its frequency in said corpus:
-        Map<Character, Integer> frequencyMap = new HashMap<>();
-        for (int i = 0; i < charList.size(); i++) {
-            int charCount = 0;
-            for (int j = 0; j < corpus.length(); j++) {
-                if (charList.get(i) == corpus.charAt(j)) {
-                    charCount++;
-                }
-            }
-            frequencyMap.put(charList.get(i), charCount);
+        // FNV-1a over the ordered frequencies, which (with the build method) fully determine the codes:
+        long corpusSize = 0;
+        modelId = linear ? 0x84222325cbf29ce4L : 0xcbf29ce484222325L;
+        for (Map.Entry<Character, Integer> entry : frequencyMap.entrySet()) {
+            modelId = (modelId ^ entry.getKey()) * 0x100000001b3L;
+            modelId = (modelId ^ entry.getValue()) * 0x100000001b3L;
+            corpusSize += entry.getValue();
         }
+        HuffmanMetrics.global().record(HuffmanMetrics.Operation.BUILD, System.nanoTime() - startNanos, corpusSize, symbolCount);
+        event.complete(modelId, symbolCount, corpusSize);
+    }
+
+    /**
+     * Builds the Huffman Trie and Encoding Map with the legacy PriorityQueue
+     * construction, then the code tables from the Encoding Map.
+     */
+    private void buildTrie (Map<Character, Integer> frequencies) {
+
+        ArrayList<Character> charList = new ArrayList<>(frequencies.keySet());
+        frequencyMap = new LinkedHashMap<>(frequencies);
 
         // Creates leaf nodes with each node holding a unique character & its frequency, the ETB_CHAR is also added with a frequency of 1:
         PriorityQueue<HuffNode> nodePriorityQueue = new PriorityQueue<>();
@@ -94,6 +199,117 @@ public class Huffman {
 
         // Establishes the encodingMap using a DFS search on the Huffman Trie:
         Trie_Traversal(trieRoot, trieRoot.bitCode, charList);
+        symbolCount = encodingMap.size();
+        buildCodeTables();
+    }
+
+    /**
+     * Builds the code tables without any trie objects: leaves are sorted by
+     * frequency as packed longs, merged in O(k) by the two-queue method (the
+     * merged weights come out already sorted, so the smallest two nodes are
+     * always at the heads of the leaf and merged queues), and the resulting
+     * code lengths are turned into canonical codes.
+     */
+    private void buildLinearCodeTables () {
+
+        // Leaves packed as (frequency << 16) | character, with the ETB_CHAR counted once more:
+        long[] leaves = new long[frequencyMap.size() + (frequencyMap.containsKey(ETB_CHAR) ? 0 : 1)];
+        int leafCount = 0;
+        long etbCount = 1;
+        for (Map.Entry<Character, Integer> entry : frequencyMap.entrySet()) {
+            if (entry.getValue() <= 0) {
+                throw new IllegalArgumentException("Frequency of character " + (int) entry.getKey() + " must be positive");
+            }
+            if (entry.getKey() == ETB_CHAR) {
+                etbCount += entry.getValue();
+            } else {
+                leaves[leafCount++] = ((long) entry.getValue() << 16) | entry.getKey();
+            }
+        }
+        leaves[leafCount++] = (etbCount << 16) | ETB_CHAR;
+        Arrays.sort(leaves);
+        symbolCount = leafCount;
+
+        // Nodes [0, leafCount) are the sorted leaves, later ones the merged nodes in creation order:
+        int nodeCount = 2 * leafCount - 1;
+        long[] weights = new long[nodeCount];
+        int[] parents = new int[nodeCount];
+        for (int i = 0; i < leafCount; i++) {
+            weights[i] = leaves[i] >>> 16;
+        }
+        int nextLeaf = 0;
+        int nextMerged = leafCount;
+        for (int merged = leafCount; merged < nodeCount; merged++) {
+            for (int child = 0; child < 2; child++) {
+                int smallest;
+                if (nextLeaf < leafCount && (nextMerged >= merged || weights[nextLeaf] <= weights[nextMerged])) {
+                    smallest = nextLeaf++;
+                } else {
+                    smallest = nextMerged++;
+                }
+                weights[merged] += weights[smallest];
+                parents[smallest] = merged;
+            }
+        }
+
+        // Parents are always created after their children, so one backwards pass yields every depth:
+        int[] depths = new int[nodeCount];
+        int maxChar = 0;
+        for (int i = nodeCount - 2; i >= 0; i--) {
+            depths[i] = depths[parents[i]] + 1;
+        }
+        for (int i = 0; i < leafCount; i++) {
+            maxChar = Math.max(maxChar, (int) (leaves[i] & 0xFFFF));
+        }
+        codeLengths = new int[maxChar + 1];
+        codeBits = new long[maxChar + 1];
+        Arrays.fill(codeLengths, -1);
+        int maxLength = 0;
+        for (int i = 0; i < leafCount; i++) {
+            codeLengths[(int) (leaves[i] & 0xFFFF)] = depths[i];
+            maxLength = Math.max(maxLength, depths[i]);
+        }
+
+        // Canonical codes: each length's codes follow the last code of the previous length, in character order
+        int[] lengthCounts = new int[maxLength + 1];
+        for (int length : codeLengths) {
+            if (length > 0) {
+                lengthCounts[length]++;
+            }
+        }
+        long[] nextCode = new long[maxLength + 1];
+        for (int length = 1; length <= maxLength; length++) {
+            nextCode[length] = (nextCode[length - 1] + lengthCounts[length - 1]) << 1;
+        }
+        for (int c = 0; c <= maxChar; c++) {
+            if (codeLengths[c] > 0) {
+                codeBits[c] = nextCode[codeLengths[c]]++;
+            }
+        }
+        buildDecodeTable();
+    }
+
+    /**
+     * @return An identifier of this model's codes: models built from the same
+     *         ordered frequencies share it.
+     */
+    public long getModelId () {
+        return modelId;
+    }
+
+    /**
+     * @return The number of characters this model encodes, including the ETB character.
+     */
+    public int getSymbolCount () {
+        return symbolCount;
+    }
+
+    /**
+     * Generates a Map with each unique character in the corpus paired with its
+     * frequency in said corpus, in order of each character's first appearance.
+     */
+    private static Map<Character, Integer> countFrequencies (String corpus) {
+        return HuffmanHistogram.frequencies(corpus);
     }
 
     /**
@@ -118,7 +334,9 @@ public class Huffman {
         }
 
         currCode += inputNode.bitCode;
-        if (charList.contains(inputNode.character) || inputNode.character == ETB_CHAR ) {
+        // Only leaves carry characters; parents are created with ' ' and must not shadow a real space
+        boolean isLeaf = inputNode.left == null && inputNode.right == null;
+        if ( isLeaf && (charList.contains(inputNode.character) || inputNode.character == ETB_CHAR) ) {
             encodingMap.put(inputNode.character, currCode);
         }
 
@@ -126,6 +344,131 @@ public class Huffman {
         Trie_Traversal(inputNode.left, currCode, charList);
     }
 
+    /**
+     * Flattens the encodingMap into the codeLengths and codeBits tables so that
+     * encoding and size estimation are simple array lookups per character.
+     */
+    private void buildCodeTables () {
+
+        int tableSize = encodingMap.lastKey() + 1;
+        codeLengths = new int[tableSize];
+        codeBits = new long[tableSize];
+        Arrays.fill(codeLengths, -1);
+        for (Map.Entry<Character, String> entry : encodingMap.entrySet()) {
+            String code = entry.getValue();
+            codeLengths[entry.getKey()] = code.length();
+            codeBits[entry.getKey()] = code.isEmpty() ? 0 : Long.parseUnsignedLong(code, 2);
+        }
+        buildDecodeTable();
+    }
+
+    /**
+     * Builds the decodeTable by inserting every code of the codeLengths and
+     * codeBits tables into a flattened binary trie, in character order,
+     * numbering internal nodes in insertion order.
+     */
+    private void buildDecodeTable () {
+
+        // A full binary trie with k leaves has k - 1 internal nodes
+        decodeTable = new int[Math.max(2, 2 * (symbolCount - 1))];
+        int nodeCount = 1;
+        for (int c = 0; c < codeLengths.length; c++) {
+            int length = codeLengths[c];
+            int node = 0;
+            for (int i = 0; i < length; i++) {
+                int slot = (node << 1) | (int) ((codeBits[c] >>> (length - 1 - i)) & 1);
+                if (i == length - 1) {
+                    decodeTable[slot] = ~c;
+                } else {
+                    if (decodeTable[slot] == 0) {
+                        decodeTable[slot] = nodeCount++;
+                    }
+                    node = decodeTable[slot];
+                }
+            }
+        }
+        buildLookupTable();
+    }
+
+    /**
+     * Builds the lookupTable from the codeLengths and codeBits tables, pointing
+     * prefixes of codes longer than lookupBits at their decodeTable node.
+     */
+    private void buildLookupTable () {
+
+        int maxLength = 1;
+        for (int length : codeLengths) {
+            maxLength = Math.max(maxLength, length);
+        }
+        lookupBits = Math.min(maxLength, MAX_LOOKUP_BITS);
+        lookupTable = new int[1 << lookupBits];
+        for (int c = 0; c < codeLengths.length; c++) {
+            int length = codeLengths[c];
+            if (length > 0 && length <= lookupBits) {
+                int first = (int) codeBits[c] << (lookupBits - length);
+                int last = first + (1 << (lookupBits - length));
+                Arrays.fill(lookupTable, first, last, (c << 8) | length);
+            }
+        }
+        for (int prefix = 0; prefix < lookupTable.length; prefix++) {
+            if (lookupTable[prefix] == 0) {
+                int node = 0;
+                for (int bit = lookupBits - 1; bit >= 0 && node >= 0; bit--) {
+                    node = decodeTable[(node << 1) | ((prefix >>> bit) & 1)];
+                }
+                lookupTable[prefix] = node << 8;
+            }
+        }
+    }
+
+
+    // -----------------------------------------------
+    // Model Persistence
+    // -----------------------------------------------
+
+    /**
+     * Writes the character frequencies this Huffman was built from so that an
+     * identical model (with identical codes) can be shipped and rebuilt
+     * elsewhere using readModel.
+     * @param out Stream to write to; it is flushed but not closed.
+     *        Formatted as: (1) the "HUFM" magic int ("HUFL" for models made
+     *        by buildLinear), (2) the number of characters, (3) each
+     *        character and its frequency, in order.
+     * @throws IOException If writing to out fails.
+     */
+    public void writeModel (OutputStream out) throws IOException {
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(linear ? LINEAR_MODEL_MAGIC : MODEL_MAGIC);
+        data.writeInt(frequencyMap.size());
+        for (Map.Entry<Character, Integer> entry : frequencyMap.entrySet()) {
+            data.writeChar(entry.getKey());
+            data.writeInt(entry.getValue());
+        }
+        data.flush();
+    }
+
+    /**
+     * Rebuilds a Huffman model previously saved with writeModel.
+     * @param in Stream positioned at the start of a serialized model.
+     * @return The Huffman model with the same Encoding Map as the saved one.
+     * @throws IOException If reading fails or in does not hold a model.
+     */
+    public static Huffman readModel (InputStream in) throws IOException {
+
+        DataInputStream data = new DataInputStream(in);
+        int magic = data.readInt();
+        if (magic != MODEL_MAGIC && magic != LINEAR_MODEL_MAGIC) {
+            throw new IOException("Not a serialized Huffman model");
+        }
+        int size = data.readInt();
+        Map<Character, Integer> frequencies = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            frequencies.put(data.readChar(), data.readInt());
+        }
+        return new Huffman(frequencies, magic == LINEAR_MODEL_MAGIC);
+    }
+
 
     // -----------------------------------------------
     // Compression
@@ -143,37 +486,793 @@ public class Huffman {
      */
     public byte[] compress (String message) {
 
-        String outputByteCode = "";
-        for (int i = 0; i < message.length(); i++) {
-            Character currChar = message.charAt(i);
-            outputByteCode += encodingMap.get(currChar);
+        long startNanos = System.nanoTime();
+        HuffmanEvents.Compress event = new HuffmanEvents.Compress();
+        event.begin();
+
+        long bitCount = estimateCompressedBits(message);
+        if (bitCount < 0) {
+            throw new IllegalArgumentException("Message contains characters outside of this Huffman model");
+        }
+
+        byte[] output = new byte[(int) ((bitCount + 7) / 8)];
+        encodeInto(message, 0, message.length(), ByteBuffer.wrap(output), 0);
+
+        HuffmanMetrics.global().record(HuffmanMetrics.Operation.COMPRESS, System.nanoTime() - startNanos, message.length(), output.length);
+        event.complete(this, message.length(), output.length);
+        return output;
+    }
+
+    /**
+     * Returns the exact number of meaningful bits (message codes plus the ETB
+     * code, excluding the final byte's padding) that compress would produce
+     * for the given message, summing precomputed code lengths without
+     * producing any output.
+     * @param message String representing the corpus to estimate.
+     * @return The compressed size in bits, or -1 if the message contains a
+     *         character that this Huffman model cannot encode.
+     */
+    public long estimateCompressedBits (String message) {
+        return estimateCompressedBits(message, 0, message.length());
+    }
+
+    long estimateCompressedBits (CharSequence message, int from, int to) {
+
+        if (message instanceof String) {
+            long bitCount = HuffmanHistogram.sumCodeLengths((String) message, from, to, codeLengths);
+            return bitCount < 0 ? -1 : bitCount + codeLengths[ETB_CHAR];
+        }
+        long bitCount = codeLengths[ETB_CHAR];
+        for (int i = from; i < to; i++) {
+            char currChar = message.charAt(i);
+            if (currChar >= codeLengths.length || codeLengths[currChar] < 0) {
+                return -1;
+            }
+            bitCount += codeLengths[currChar];
+        }
+        return bitCount;
+    }
+
+    /**
+     * Writes the Huffman coded bitstring of message[from, to) followed by the
+     * ETB code and 0-padding into out, starting at the absolute index offset.
+     * The caller guarantees every character is encodable and that out has
+     * room for the estimated number of bytes; out's position is not touched.
+     * The codes are looked up a chunk at a time by HuffmanHistogram, then
+     * packed from its arrays.
+     * @return The number of bytes written.
+     */
+    int encodeInto (CharSequence message, int from, int to, ByteBuffer out, int offset) {
+
+        long accumulator = 0;
+        int pendingBits = 0;
+        int index = offset;
+        for (int start = from, end; ; start = end) {
+            end = Math.min(to, start + HuffmanHistogram.CHUNK_SIZE);
+            HuffmanHistogram.Scratch codes = HuffmanHistogram.gatherCodes(message, start, end, end == to, codeLengths, codeBits);
+            for (int i = 0; i < codes.count; i++) {
+                int length = codes.lengths[i];
+                long bits = codes.bits[i];
+                if (length > 32) { // Splits very long codes so the accumulator never overflows
+                    accumulator = (accumulator << (length - 32)) | (bits >>> 32);
+                    pendingBits += length - 32;
+                    while (pendingBits >= 8) {
+                        pendingBits -= 8;
+                        out.put(index++, (byte) (accumulator >>> pendingBits));
+                    }
+                    length = 32;
+                    bits &= 0xFFFFFFFFL;
+                }
+                accumulator = (accumulator << length) | bits;
+                pendingBits += length;
+                while (pendingBits >= 8) {
+                    pendingBits -= 8;
+                    out.put(index++, (byte) (accumulator >>> pendingBits));
+                }
+            }
+            if (end == to) {
+                break;
+            }
+        }
+        if (pendingBits > 0) {
+            out.put(index++, (byte) (accumulator << (8 - pendingBits))); // Adds padding
+        }
+        return index - offset;
+    }
+
+
+    /**
+     * @return The code length of the given character, or -1 if this model
+     *         cannot encode it.
+     */
+    int codeLength (char c) {
+        return c < codeLengths.length ? codeLengths[c] : -1;
+    }
+
+    /**
+     * @return The right-aligned code bits of an encodable character.
+     */
+    long codeBits (char c) {
+        return codeBits[c];
+    }
+
+    /**
+     * Creates a stateful encoder that compresses a message delivered in
+     * chunks, carrying partial bytes over from one chunk to the next.
+     * @return A new HuffmanEncoder using this model.
+     */
+    public HuffmanEncoder newEncoder () {
+        return new HuffmanEncoder(this);
+    }
+
+    /**
+     * Compresses the UTF-8 text read from in until end of stream, writing
+     * exactly the bytes compress would produce for the whole text to out,
+     * without materializing it as a String or byte[]. Bytes move through
+     * pooled direct buffers, so the channels copy nothing through the heap,
+     * and completed output buffers are written together by a gathering write
+     * when out supports it.
+     * @param in Blocking channel holding UTF-8 text; it is read to its end
+     *        but not closed.
+     * @param out Blocking channel receiving the compressed message; it is not closed.
+     * @return The number of compressed bytes written.
+     * @throws IOException If either channel fails or in holds malformed UTF-8.
+     * @throws IllegalArgumentException If the text contains characters outside of this model.
+     */
+    public long compress (ReadableByteChannel in, WritableByteChannel out) throws IOException {
+
+        HuffmanBufferPool pool = HuffmanBufferPool.shared();
+        ByteBuffer input = pool.acquire();
+        ByteBuffer[] outputs = {pool.acquire(), pool.acquire()};
+        CharBuffer chars = CharBuffer.allocate(pool.getBufferSize());
+        CharsetDecoder utf8 = StandardCharsets.UTF_8.newDecoder();
+        HuffmanEncoder encoder = newEncoder();
+        long written = 0;
+        int current = 0;
+        try {
+            boolean endOfInput = false;
+            boolean decoded = false;
+            while (!decoded) {
+                if (!endOfInput) {
+                    endOfInput = in.read(input) < 0;
+                }
+                input.flip();
+                CoderResult result = utf8.decode(input, chars, endOfInput);
+                input.compact();
+                if (result.isError()) {
+                    result.throwException();
+                }
+                decoded = endOfInput && result.isUnderflow();
+
+                chars.flip();
+                while (chars.hasRemaining()) {
+                    encoder.encode(chars, outputs[current]);
+                    if (chars.hasRemaining() && ++current == outputs.length) { // Every output buffer is full
+                        written += drain(out, outputs, current);
+                        current = 0;
+                    }
+                }
+                chars.clear();
+            }
+            while (!encoder.finish(outputs[current])) {
+                if (++current == outputs.length) {
+                    written += drain(out, outputs, current);
+                    current = 0;
+                }
+            }
+            return written + drain(out, outputs, current + 1);
+        } finally {
+            pool.release(input);
+            for (ByteBuffer output : outputs) {
+                pool.release(output);
+            }
+        }
+    }
+
+
+    // -----------------------------------------------
+    // Batch Compression
+    // -----------------------------------------------
+
+    /**
+     * Compresses every message into one contiguous byte array, equivalent to
+     * concatenating the results of compress on each of them.
+     * @param messages The messages to compress.
+     * @return The Batch holding the compressed messages and their offsets.
+     */
+    public Batch compressAll (List<String> messages) {
+        return compressAll(messages, null);
+    }
+
+    /**
+     * Compresses every message into one contiguous byte array, spreading
+     * large batches over the given thread pool.
+     * @param messages The messages to compress.
+     * @param pool Pool to run chunks of the batch on, or null to compress on
+     *        the calling thread.
+     * @return The Batch holding the compressed messages and their offsets.
+     */
+    public Batch compressAll (List<String> messages, ExecutorService pool) {
+
+        String[] batch = messages.toArray(new String[0]);
+        int[] offsets = new int[batch.length + 1];
+        measureAll(batch, offsets, 0, pool);
+        byte[] data = new byte[offsets[batch.length]];
+        encodeAll(batch, ByteBuffer.wrap(data), offsets, pool);
+        return new Batch(data, offsets);
+    }
+
+    /**
+     * Compresses every message back to back into out, starting at its
+     * position, without allocating any intermediate buffers.
+     * @param messages The messages to compress.
+     * @param out Buffer to write to; its position is advanced past the batch.
+     * @param offsets Array of at least messages.length + 1 entries that
+     *        receives the absolute index in out where each message starts,
+     *        followed by the index just past the last one.
+     * @return The number of bytes written.
+     * @throws BufferOverflowException If the batch does not fit in out, in
+     *         which case nothing is written.
+     */
+    public int compressAll (String[] messages, ByteBuffer out, int[] offsets) {
+        return compressAll(messages, out, offsets, null);
+    }
+
+    /**
+     * Compresses every message back to back into out as above, spreading
+     * large batches over the given thread pool. Every message starts on a
+     * byte boundary, so chunks are encoded into disjoint ranges of out.
+     * @param pool Pool to run chunks of the batch on, or null to compress on
+     *        the calling thread.
+     */
+    public int compressAll (String[] messages, ByteBuffer out, int[] offsets, ExecutorService pool) {
+
+        if (offsets.length < messages.length + 1) {
+            throw new IllegalArgumentException("offsets must hold messages.length + 1 entries");
+        }
+        measureAll(messages, offsets, out.position(), pool);
+        if (offsets[messages.length] > out.limit()) {
+            throw new BufferOverflowException();
+        }
+        encodeAll(messages, out, offsets, pool);
+        out.position(offsets[messages.length]);
+        return offsets[messages.length] - offsets[0];
+    }
+
+    /**
+     * Fills offsets with the start index of each compressed message, laid out
+     * back to back from base, using the estimated size of each message.
+     */
+    private void measureAll (String[] messages, int[] offsets, int base, ExecutorService pool) {
+
+        runChunked(messages.length, pool, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                long bitCount = estimateCompressedBits(messages[i]);
+                if (bitCount < 0) {
+                    throw new IllegalArgumentException("Message " + i + " contains characters outside of this Huffman model");
+                }
+                offsets[i + 1] = (int) ((bitCount + 7) / 8);
+            }
+        });
+        long end = base;
+        offsets[0] = base;
+        for (int i = 1; i <= messages.length; i++) {
+            end += offsets[i];
+            if (end > Integer.MAX_VALUE) {
+                throw new BufferOverflowException();
+            }
+            offsets[i] = (int) end;
+        }
+    }
+
+    private void encodeAll (String[] messages, ByteBuffer out, int[] offsets, ExecutorService pool) {
+
+        runChunked(messages.length, pool, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                encodeInto(messages[i], 0, messages[i].length(), out, offsets[i]);
+            }
+        });
+    }
+
+    /**
+     * Runs task over [0, count) in chunks of BATCH_CHUNK_SIZE on the given
+     * pool, or directly on the calling thread when there is no pool or only
+     * one chunk, rethrowing the first failure of any chunk.
+     */
+    private static void runChunked (int count, ExecutorService pool, ChunkTask task) {
+        runChunked(count, BATCH_CHUNK_SIZE, pool, task);
+    }
+
+    private static void runChunked (int count, int chunkSize, ExecutorService pool, ChunkTask task) {
+
+        if (pool == null || count <= chunkSize) {
+            task.run(0, count);
+            return;
+        }
+        List<Callable<Void>> chunks = new ArrayList<>();
+        for (int from = 0; from < count; from += chunkSize) {
+            int chunkFrom = from;
+            int chunkTo = Math.min(count, from + chunkSize);
+            chunks.add(() -> {
+                task.run(chunkFrom, chunkTo);
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> chunk : pool.invokeAll(chunks)) {
+                chunk.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a batch", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private interface ChunkTask {
+        void run (int from, int to);
+    }
+
+    /**
+     * A batch of messages compressed back to back into one byte array, each
+     * one decodable on its own with decompress(data, offset, length).
+     */
+    public static class Batch {
+
+        private final byte[] data;
+        private final int[] offsets;
+
+        Batch (byte[] data, int[] offsets) {
+            this.data = data;
+            this.offsets = offsets;
+        }
+
+        /**
+         * @return The number of messages in the batch.
+         */
+        public int size () {
+            return offsets.length - 1;
+        }
+
+        /**
+         * @return The contiguous compressed bytes of every message.
+         */
+        public byte[] getData () {
+            return data;
+        }
+
+        /**
+         * @return The index in getData where the i-th message starts.
+         */
+        public int getOffset (int i) {
+            return offsets[i];
+        }
+
+        /**
+         * @return The number of compressed bytes of the i-th message.
+         */
+        public int getLength (int i) {
+            return offsets[i + 1] - offsets[i];
+        }
+
+        /**
+         * @return A copy of the i-th compressed message, as compress returns it.
+         */
+        public byte[] get (int i) {
+            return Arrays.copyOfRange(data, offsets[i], offsets[i + 1]);
+        }
+    }
+
+
+    // -----------------------------------------------
+    // Block Mode
+    // -----------------------------------------------
+
+    /**
+     * Compresses the given message as a sequence of independent blocks of at
+     * most blockSize characters. Each block is Huffman coded unless that would
+     * not make it smaller than its raw UTF-8 bytes (or it contains characters
+     * outside this model), in which case it is stored raw instead. Blocks
+     * holding an unpaired surrogate, which UTF-8 cannot represent, are always
+     * Huffman coded so that they round-trip exactly.
+     * @param message String representing the corpus to compress.
+     * @param blockSize Maximum number of characters per block.
+     * @return {@code byte[]} formatted as a sequence of blocks, each being
+     *         (1) a varint header holding the payload length shifted left by
+     *         one with the raw flag in the lowest bit, (2) the payload: either
+     *         the output of compress on the block, or its raw UTF-8 bytes.
+     * @throws IllegalArgumentException If a block holds both an unpaired
+     *         surrogate and characters outside of this model.
+     */
+    public byte[] compressBlocks (String message, int blockSize) {
+        return writeBlocks(message, blockSize, false);
+    }
+
+    /**
+     * Compresses the given message into blocks exactly like compressBlocks,
+     * but frames each block with CRC32C checksums so that decompressFramed can
+     * tell a damaged block from its payload alone, skip it without decoding
+     * it, and still recover every other block.
+     * @param message String representing the corpus to compress.
+     * @param blockSize Maximum number of characters per block.
+     * @return {@code byte[]} formatted as a sequence of frames, each being
+     *         (1) the block header of compressBlocks, (2) the CRC32C of the
+     *         payload, (3) the CRC32C of the block's characters as UTF-16BE
+     *         (of the payload again for raw blocks, whose bytes are their
+     *         content), both big-endian ints, (4) the payload.
+     * @throws IllegalArgumentException If a block holds both an unpaired
+     *         surrogate and characters outside of this model.
+     */
+    public byte[] compressFramed (String message, int blockSize) {
+        return writeBlocks(message, blockSize, true);
+    }
+
+    private byte[] writeBlocks (String message, int blockSize, boolean framed) {
+
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive");
+        }
+
+        // First pass decides each block's representation and the exact output size:
+        int numOfBlocks = (message.length() + blockSize - 1) / blockSize;
+        int[] blockEnds = new int[numOfBlocks];
+        int[] headers = new int[numOfBlocks];
+        int totalSize = 0;
+        int start = 0;
+        for (int b = 0; b < numOfBlocks; b++) {
+            int end = Math.min(start + blockSize, message.length());
+            if (end < message.length() && Character.isHighSurrogate(message.charAt(end - 1))) {
+                end++; // Never splits a surrogate pair across raw blocks
+            }
+            long bitCount = estimateCompressedBits(message, start, end);
+            int rawSize = utf8Length(message, start, end);
+            if (bitCount < 0 && rawSize < 0) {
+                throw new IllegalArgumentException("Block " + b + " contains an unpaired surrogate and characters outside of this Huffman model");
+            }
+            if (rawSize >= 0 && (bitCount < 0 || (bitCount + 7) / 8 >= rawSize)) {
+                headers[b] = (rawSize << 1) | 1;
+                totalSize += varIntLength(headers[b]) + rawSize;
+            } else {
+                int huffSize = (int) ((bitCount + 7) / 8);
+                headers[b] = huffSize << 1;
+                totalSize += varIntLength(headers[b]) + huffSize;
+            }
+            if (framed) {
+                totalSize += FRAME_CHECKSUMS_SIZE;
+            }
+            blockEnds[b] = end;
+            start = end;
+            if (end == message.length()) {
+                numOfBlocks = b + 1;
+            }
+        }
+
+        // Second pass writes the headers and payloads:
+        ByteBuffer output = ByteBuffer.allocate(totalSize);
+        start = 0;
+        for (int b = 0; b < numOfBlocks; b++) {
+            writeVarInt(output, headers[b]);
+            int checksumsAt = output.position();
+            if (framed) {
+                output.position(checksumsAt + FRAME_CHECKSUMS_SIZE);
+            }
+            int payloadStart = output.position();
+            if ((headers[b] & 1) == 1) {
+                output.put(message.substring(start, blockEnds[b]).getBytes(StandardCharsets.UTF_8));
+            } else {
+                int written = encodeInto(message, start, blockEnds[b], output, output.position());
+                output.position(output.position() + written);
+            }
+            if (framed) {
+                int payloadCrc = checksum(output.array(), payloadStart, output.position());
+                output.putInt(checksumsAt, payloadCrc);
+                output.putInt(checksumsAt + 4, (headers[b] & 1) == 1 ? payloadCrc : checksum(message, start, blockEnds[b]));
+            }
+            start = blockEnds[b];
+        }
+        return output.array();
+    }
+
+    /**
+     * Decompresses a sequence of blocks produced by compressBlocks back into
+     * the original String, copying raw blocks and decoding Huffman blocks.
+     * @param compressedMsg {@code byte[]} formatted as described in compressBlocks.
+     * @return Decompressed String representation of all of the blocks.
+     */
+    public String decompressBlocks (byte[] compressedMsg) {
+
+        StringBuilder output = new StringBuilder();
+        ByteBuffer input = ByteBuffer.wrap(compressedMsg);
+        while (input.hasRemaining()) {
+            int header = readVarInt(input);
+            int payloadSize = header >>> 1;
+            int payloadStart = input.position();
+            if ((header & 1) == 1) {
+                output.append(new String(compressedMsg, payloadStart, payloadSize, StandardCharsets.UTF_8));
+            } else {
+                decodeInto(input, payloadStart, payloadStart + payloadSize, output);
+            }
+            input.position(payloadStart + payloadSize);
+        }
+        return output.toString();
+    }
+
+    /**
+     * Decompresses a sequence of frames produced by compressFramed, skipping
+     * every block whose checksums do not match. A block's payload checksum is
+     * verified before it is decoded, so damaged blocks cost no decoding.
+     * @param framed {@code byte[]} formatted as described in compressFramed.
+     * @return The concatenation of every intact block, with the indices of
+     *         the skipped ones.
+     */
+    public FramedMessage decompressFramed (byte[] framed) {
+        return decompressFramed(framed, null);
+    }
+
+    /**
+     * Decompresses a sequence of frames like decompressFramed(byte[]), with
+     * the blocks verified and decoded in parallel on the given pool.
+     * @param framed {@code byte[]} formatted as described in compressFramed.
+     * @param pool Pool decoding groups of blocks, or null to decode on the
+     *        calling thread.
+     * @return The concatenation of every intact block, with the indices of
+     *         the skipped ones.
+     */
+    public FramedMessage decompressFramed (byte[] framed, ExecutorService pool) {
+
+        FrameIndex index = new FrameIndex(framed);
+        String[] blocks = new String[index.size];
+        runChunked(index.size, FRAMES_PER_TASK, pool, (from, to) -> {
+            for (int b = from; b < to; b++) {
+                blocks[b] = decodeFrame(framed, index, b);
+            }
+        });
+
+        StringBuilder text = new StringBuilder();
+        int[] badBlocks = new int[index.size + (index.truncated ? 1 : 0)];
+        int badCount = 0;
+        for (int b = 0; b < index.size; b++) {
+            if (blocks[b] == null) {
+                badBlocks[badCount++] = b;
+            } else {
+                text.append(blocks[b]);
+            }
+        }
+        if (index.truncated) {
+            badBlocks[badCount++] = index.size;
+        }
+        return new FramedMessage(text.toString(), badBlocks.length, Arrays.copyOf(badBlocks, badCount));
+    }
+
+    /**
+     * Checks the payload checksum of every frame produced by compressFramed
+     * without decoding anything, e.g. to reject a damaged archive before
+     * spending time on decompressFramed.
+     * @param framed {@code byte[]} formatted as described in compressFramed.
+     * @return The indices of blocks whose payload is damaged, including a
+     *         final block index if the frames end early; empty if intact.
+     */
+    public static int[] verifyFramed (byte[] framed) {
+
+        FrameIndex index = new FrameIndex(framed);
+        int[] badBlocks = new int[index.size + (index.truncated ? 1 : 0)];
+        int badCount = 0;
+        for (int b = 0; b < index.size; b++) {
+            if (checksum(framed, index.payloadStarts[b], index.payloadEnd(b)) != index.payloadCrcs[b]) {
+                badBlocks[badCount++] = b;
+            }
+        }
+        if (index.truncated) {
+            badBlocks[badCount++] = index.size;
+        }
+        return Arrays.copyOf(badBlocks, badCount);
+    }
+
+    /**
+     * Verifies and decodes the b-th frame.
+     * @return The block's characters, or null if either checksum does not match.
+     */
+    private String decodeFrame (byte[] framed, FrameIndex index, int b) {
+
+        int payloadStart = index.payloadStarts[b];
+        int payloadEnd = index.payloadEnd(b);
+        if (checksum(framed, payloadStart, payloadEnd) != index.payloadCrcs[b]) {
+            return null;
+        }
+        if ((index.headers[b] & 1) == 1) {
+            return new String(framed, payloadStart, payloadEnd - payloadStart, StandardCharsets.UTF_8);
+        }
+        StringBuilder block = new StringBuilder();
+        if (decodeInto(ByteBuffer.wrap(framed), payloadStart, payloadEnd, block) != payloadEnd
+                || checksum(block, 0, block.length()) != index.contentCrcs[b]) {
+            return null; // Intact bytes that still decode wrongly, e.g. under a different model
+        }
+        return block.toString();
+    }
+
+    /**
+     * Positions and checksums of every frame, read from the frame headers
+     * alone. A header or payload running past the end of the array cannot be
+     * framed, so it and everything after it count as one truncated block.
+     */
+    private static class FrameIndex {
+
+        int size;
+        boolean truncated;
+        int[] headers = new int[16];
+        int[] payloadStarts = new int[16];
+        int[] payloadCrcs = new int[16];
+        int[] contentCrcs = new int[16];
+
+        FrameIndex (byte[] framed) {
+
+            ByteBuffer input = ByteBuffer.wrap(framed);
+            while (input.hasRemaining()) {
+                int header;
+                try {
+                    header = readVarInt(input);
+                } catch (RuntimeException e) {
+                    truncated = true;
+                    return;
+                }
+                long payloadStart = (long) input.position() + FRAME_CHECKSUMS_SIZE;
+                if (header < 0 || payloadStart + (header >>> 1) > framed.length) {
+                    truncated = true;
+                    return;
+                }
+                if (size == headers.length) {
+                    headers = Arrays.copyOf(headers, size * 2);
+                    payloadStarts = Arrays.copyOf(payloadStarts, size * 2);
+                    payloadCrcs = Arrays.copyOf(payloadCrcs, size * 2);
+                    contentCrcs = Arrays.copyOf(contentCrcs, size * 2);
+                }
+                headers[size] = header;
+                payloadCrcs[size] = input.getInt();
+                contentCrcs[size] = input.getInt();
+                payloadStarts[size] = input.position();
+                input.position(payloadStarts[size] + (header >>> 1));
+                size++;
+            }
+        }
+
+        int payloadEnd (int b) {
+            return payloadStarts[b] + (headers[b] >>> 1);
+        }
+    }
+
+    /**
+     * The result of decompressFramed: the text of every intact block, and
+     * which blocks were skipped because they were damaged.
+     */
+    public static class FramedMessage {
+
+        private final String text;
+        private final int blockCount;
+        private final int[] badBlocks;
+
+        FramedMessage (String text, int blockCount, int[] badBlocks) {
+            this.text = text;
+            this.blockCount = blockCount;
+            this.badBlocks = badBlocks;
+        }
+
+        /**
+         * @return The concatenated characters of every intact block.
+         */
+        public String getText () {
+            return text;
+        }
+
+        /**
+         * @return The number of blocks found, damaged ones included.
+         */
+        public int getBlockCount () {
+            return blockCount;
         }
 
-        outputByteCode += encodingMap.get(ETB_CHAR);
-        while ( !(outputByteCode.length() % 8 == 0) ) {
-            outputByteCode += "0"; // Adds padding
+        /**
+         * @return The indices of the skipped blocks, in ascending order.
+         */
+        public int[] getBadBlocks () {
+            return badBlocks.clone();
         }
 
-        int numOfBytes = outputByteCode.length()/8;
-        String[] ByteArray = new String[numOfBytes];
-        for (int i = 0; i < numOfBytes; i++) {
-            ByteArray[i] = "";
+        /**
+         * @return True if no block was skipped, so getText is the whole message.
+         */
+        public boolean isIntact () {
+            return badBlocks.length == 0;
+        }
+    }
+
+    /**
+     * Returns the CRC32C (hardware accelerated on current JVMs) of bytes[from, to).
+     */
+    private static int checksum (byte[] bytes, int from, int to) {
+
+        CRC32C crc = new CRC32C();
+        crc.update(bytes, from, to - from);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Returns the CRC32C of chars[from, to) as UTF-16BE bytes.
+     */
+    private static int checksum (CharSequence chars, int from, int to) {
+
+        CRC32C crc = new CRC32C();
+        byte[] chunk = new byte[2 * Math.min(to - from, 4096)];
+        while (from < to) {
+            int n = Math.min(to - from, chunk.length / 2);
+            for (int i = 0; i < n; i++) {
+                char currChar = chars.charAt(from + i);
+                chunk[2 * i] = (byte) (currChar >>> 8);
+                chunk[2 * i + 1] = (byte) currChar;
+            }
+            crc.update(chunk, 0, 2 * n);
+            from += n;
         }
+        return (int) crc.getValue();
+    }
 
-        int index = 0;
-        for (int i = 0; i < numOfBytes; i++) {
-            for (int j = 8; j > 0; j--) {
-                ByteArray[i] += outputByteCode.charAt(index);
-                index += 1;
+    /**
+     * Returns the number of bytes the UTF-8 encoding of message[from, to) takes,
+     * or -1 if it holds an unpaired surrogate, which UTF-8 cannot represent.
+     */
+    static int utf8Length (CharSequence message, int from, int to) {
+
+        int length = 0;
+        for (int i = from; i < to; i++) {
+            char currChar = message.charAt(i);
+            if (currChar < 0x80) {
+                length += 1;
+            } else if (currChar < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(currChar) && i + 1 < to && Character.isLowSurrogate(message.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(currChar)) {
+                return -1;
+            } else {
+                length += 3;
             }
         }
+        return length;
+    }
+
+    private static int varIntLength (int value) {
 
-        ByteArrayOutputStream output = new ByteArrayOutputStream();
-        for (int i = 0; i < numOfBytes; i++) {
-            output.write(Integer.parseInt(ByteArray[i], 2));
+        int length = 1;
+        while ((value >>>= 7) != 0) {
+            length++;
         }
+        return length;
+    }
+
+    private static void writeVarInt (ByteBuffer output, int value) {
+
+        while ((value & ~0x7F) != 0) {
+            output.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.put((byte) value);
+    }
 
-        return output.toByteArray();
+    private static int readVarInt (ByteBuffer input) {
+
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte currByte = input.get();
+            value |= (currByte & 0x7F) << shift;
+            if (currByte >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed block header");
     }
 
 
@@ -192,30 +1291,310 @@ public class Huffman {
      * @return Decompressed String representation of the compressed bytecode message.
      */
     public String decompress (byte[] compressedMsg) {
+        return decompress(compressedMsg, 0, compressedMsg.length);
+    }
+
+    /**
+     * Decompresses the compressed message stored in compressedMsg[offset,
+     * offset + length), e.g. one message of a {@link Batch}, without copying it.
+     * @param compressedMsg Array holding the compressed message.
+     * @param offset Index of the message's first byte.
+     * @param length Number of bytes the message spans.
+     * @return Decompressed String representation of the compressed bytecode message.
+     */
+    public String decompress (byte[] compressedMsg, int offset, int length) {
+
+        long startNanos = System.nanoTime();
+        HuffmanEvents.Decompress event = new HuffmanEvents.Decompress();
+        event.begin();
+
+        StringBuilder decompressed = new StringBuilder();
+        decodeInto(ByteBuffer.wrap(compressedMsg), offset, offset + length, decompressed);
+
+        HuffmanMetrics.global().record(HuffmanMetrics.Operation.DECOMPRESS, System.nanoTime() - startNanos, length, decompressed.length());
+        event.complete(this, length, decompressed.length());
+        return decompressed.toString();
+    }
+
+    /**
+     * Decodes the Huffman coded bitstring stored in src[offset, limit) (absolute
+     * indices; src's position is not touched) into out until the ETB code is
+     * reached.
+     * @return The index just past the byte holding the last bit of the ETB
+     *         code, or -1 if limit was reached before an ETB code was found.
+     */
+    int decodeInto (ByteBuffer src, int offset, int limit, StringBuilder out) {
+        return decode(src, offset, limit, symbol -> {
+            out.append(symbol);
+            return true;
+        });
+    }
 
-        String byteString = "";
-        int numOfBytes = compressedMsg.length;
-        for (int i = 0; i < numOfBytes; i++) {
-            byteString += getBinary(compressedMsg[i]);
+    /**
+     * Decodes the Huffman coded bitstring stored in src[offset, limit), handing
+     * every decoded character to sink until the ETB code is reached or sink
+     * asks to stop. Codes of up to lookupBits bits are decoded with one
+     * lookupTable access; longer ones finish by walking the decodeTable bit
+     * by bit.
+     * @return The index just past the byte holding the last bit of the ETB
+     *         code (or of the character sink stopped at), or -1 if limit was
+     *         reached before an ETB code was found.
+     */
+    private int decode (ByteBuffer src, int offset, int limit, SymbolSink sink) {
+
+        if (codeLengths[ETB_CHAR] == 0) { // A trie of only the ETB leaf encodes nothing
+            return offset;
         }
+        long window = 0;
+        int windowBits = 0;
+        int index = offset;
+        while (true) {
+            while (windowBits <= 56 && index < limit) {
+                window = (window << 8) | (src.get(index++) & 0xFF);
+                windowBits += 8;
+            }
+            if (windowBits == 0) {
+                return -1;
+            }
 
-        String Decompressed = "";
-        String currBitCode = "";
-        for (int i = 0; i < byteString.length(); i++) {
-            currBitCode += byteString.charAt(i);
-            for ( Map.Entry<Character, String> entry: encodingMap.entrySet() ) {
-                if (entry.getValue().equals(currBitCode)) {
-                    if (entry.getValue().equals(encodingMap.get(ETB_CHAR))) {
-                        break;
-                    } else {
-                        Decompressed += entry.getKey();
-                        currBitCode = "";
+            int entry = (windowBits >= lookupBits)
+                    ? lookupTable[(int) (window >>> (windowBits - lookupBits)) & ((1 << lookupBits) - 1)]
+                    : lookupTable[(int) (window << (lookupBits - windowBits)) & ((1 << lookupBits) - 1)];
+            int length = entry & 0xFF;
+            char decoded;
+            if (length != 0) {
+                if (length > windowBits) { // Only matched the implicit 0-padding past limit
+                    return -1;
+                }
+                windowBits -= length;
+                decoded = (char) (entry >>> 8);
+            } else {
+                if (lookupBits > windowBits) {
+                    return -1;
+                }
+                windowBits -= lookupBits;
+                int node = entry >>> 8;
+                while (node >= 0) {
+                    if (windowBits == 0) {
+                        if (index == limit) {
+                            return -1;
+                        }
+                        window = src.get(index++) & 0xFF;
+                        windowBits = 8;
+                    }
+                    windowBits--;
+                    node = decodeTable[(node << 1) | (int) ((window >>> windowBits) & 1)];
+                }
+                decoded = (char) ~node;
+            }
+
+            if (decoded == ETB_CHAR || !sink.accept(decoded)) {
+                return index - windowBits / 8;
+            }
+        }
+    }
+
+    /**
+     * @return The decodeTable slot reached from the given node by the given
+     *         bit: an internal node index, or the complement of a leaf's
+     *         character.
+     */
+    int nextNode (int node, int bit) {
+        return decodeTable[(node << 1) | bit];
+    }
+
+    /**
+     * Creates a stateful decoder that decompresses a message delivered in
+     * chunks, carrying its position in the trie over from one chunk to the next.
+     * @return A new HuffmanDecoder using this model.
+     */
+    public HuffmanDecoder newDecoder () {
+        return new HuffmanDecoder(this);
+    }
+
+    /**
+     * Decompresses one compressed message read from in, writing its text to
+     * out as UTF-8 (lone surrogates become '?', as in String.getBytes),
+     * through pooled direct buffers and gathering writes like
+     * compress(ReadableByteChannel, WritableByteChannel).
+     * @param in Blocking channel holding the compressed message. Reading
+     *        stops once the ETB code has been decoded, but bytes already read
+     *        past it in the same chunk are consumed; it is not closed.
+     * @param out Blocking channel receiving the UTF-8 text; it is not closed.
+     * @return The number of UTF-8 bytes written.
+     * @throws IOException If either channel fails or in ends before the ETB code.
+     */
+    public long decompress (ReadableByteChannel in, WritableByteChannel out) throws IOException {
+
+        HuffmanBufferPool pool = HuffmanBufferPool.shared();
+        ByteBuffer input = pool.acquire();
+        ByteBuffer[] outputs = {pool.acquire(), pool.acquire()};
+        CharBuffer chars = CharBuffer.allocate(pool.getBufferSize());
+        CharsetEncoder utf8 = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        HuffmanDecoder decoder = newDecoder();
+        long written = 0;
+        int current = 0;
+        try {
+            input.flip();
+            while (true) {
+                if (!decoder.isFinished() && !input.hasRemaining()) {
+                    input.clear();
+                    boolean endOfInput = in.read(input) < 0;
+                    input.flip();
+                    if (endOfInput) {
+                        throw new IOException("Compressed message ends before its ETB code");
                     }
                 }
+                decoder.decode(input, chars);
+
+                chars.flip();
+                while (utf8.encode(chars, outputs[current], decoder.isFinished()).isOverflow()) {
+                    if (++current == outputs.length) {
+                        written += drain(out, outputs, current);
+                        current = 0;
+                    }
+                }
+                chars.compact(); // Keeps a high surrogate whose low half is still to be decoded
+                if (decoder.isFinished()) {
+                    break;
+                }
+            }
+            return written + drain(out, outputs, current + 1);
+        } finally {
+            pool.release(input);
+            for (ByteBuffer output : outputs) {
+                pool.release(output);
+            }
+        }
+    }
+
+    /**
+     * Writes buffers[0, count) to out, in one gathering write per pass when
+     * out supports it, and clears them for reuse.
+     * @return The number of bytes written.
+     */
+    private static long drain (WritableByteChannel out, ByteBuffer[] buffers, int count) throws IOException {
+
+        long remaining = 0;
+        for (int i = 0; i < count; i++) {
+            remaining += buffers[i].flip().remaining();
+        }
+        long written = remaining;
+        if (out instanceof GatheringByteChannel) {
+            while (remaining > 0) {
+                remaining -= ((GatheringByteChannel) out).write(buffers, 0, count);
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                while (buffers[i].hasRemaining()) {
+                    out.write(buffers[i]);
+                }
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            buffers[i].clear();
+        }
+        return written;
+    }
+
+    /**
+     * Receives the characters of a compressed message as they are decoded.
+     */
+    private interface SymbolSink {
+
+        /**
+         * @param symbol The next decoded character.
+         * @return False to stop decoding.
+         */
+        boolean accept (char symbol);
+    }
+
+
+    // -----------------------------------------------
+    // Compressed-Domain Search
+    // -----------------------------------------------
+
+    /**
+     * Returns true if the message compressed in compressedMsg contains the
+     * given pattern, without decompressing it into a String.
+     * @param compressedMsg {@code byte[]} as produced by compress.
+     * @param pattern The substring to search for.
+     * @return True if pattern occurs in the compressed message.
+     */
+    public boolean contains (byte[] compressedMsg, String pattern) {
+        return indexOf(compressedMsg, pattern) >= 0;
+    }
+
+    /**
+     * Returns the index of the first occurrence of pattern in the message
+     * compressed in compressedMsg, as String.indexOf would on the decompressed
+     * message. Characters are matched with a Knuth-Morris-Pratt automaton as
+     * they are decoded, so no decompressed text is materialized and decoding
+     * stops at the first match. Patterns containing characters outside of
+     * this model cannot occur, so they are rejected without decoding at all.
+     * @param compressedMsg {@code byte[]} as produced by compress.
+     * @param pattern The substring to search for.
+     * @return The index of the first occurrence, or -1 if there is none.
+     */
+    public int indexOf (byte[] compressedMsg, String pattern) {
+
+        if (pattern.isEmpty()) {
+            return 0;
+        }
+        if (estimateCompressedBits(pattern) < 0) {
+            return -1;
+        }
+        PatternMatcher matcher = new PatternMatcher(pattern);
+        decode(ByteBuffer.wrap(compressedMsg), 0, compressedMsg.length, matcher);
+        return matcher.matchEnd < 0 ? -1 : matcher.matchEnd - pattern.length();
+    }
+
+    /**
+     * SymbolSink that feeds decoded characters through a Knuth-Morris-Pratt
+     * automaton for a single pattern and stops at its first match.
+     */
+    private static class PatternMatcher implements SymbolSink {
+
+        final String pattern;
+        // failure[i]: length of the longest proper border of pattern[0, i]
+        final int[] failure;
+        int matched;
+        int decodedCount;
+        int matchEnd = -1;
+
+        PatternMatcher (String pattern) {
+
+            this.pattern = pattern;
+            failure = new int[pattern.length()];
+            int border = 0;
+            for (int i = 1; i < pattern.length(); i++) {
+                while (border > 0 && pattern.charAt(i) != pattern.charAt(border)) {
+                    border = failure[border - 1];
+                }
+                if (pattern.charAt(i) == pattern.charAt(border)) {
+                    border++;
+                }
+                failure[i] = border;
             }
         }
 
-        return Decompressed;
+        public boolean accept (char symbol) {
+
+            decodedCount++;
+            while (matched > 0 && symbol != pattern.charAt(matched)) {
+                matched = failure[matched - 1];
+            }
+            if (symbol == pattern.charAt(matched)) {
+                matched++;
+            }
+            if (matched == pattern.length()) {
+                matchEnd = decodedCount;
+                return false;
+            }
+            return true;
+        }
     }
 
     /**
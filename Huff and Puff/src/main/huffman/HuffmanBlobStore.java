@@ -0,0 +1,207 @@
+package main.huffman;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * HuffmanBlobStore keeps compressed payloads outside of the Java heap, in
+ * fixed-size segments that are either direct memory or regions of a
+ * memory-mapped file, so gigabytes of compressed data add nothing to GC scan
+ * times. Payloads are addressed by int handles through a compact index of
+ * one long per payload, and decode straight from segment memory into the
+ * caller's buffer.
+ * <p>
+ * Puts are serialized; gets never lock and may run concurrently with puts.
+ */
+public class HuffmanBlobStore implements Closeable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+    private final Huffman model;
+    private final int segmentSize;
+    private final FileChannel file;
+    private final List<ByteBuffer> segments = new ArrayList<>();
+    private volatile ByteBuffer[] segmentTable = new ByteBuffer[0];
+    // Where each payload starts: segment index * segmentSize + offset in segment
+    private volatile long[] addresses = new long[16];
+    private volatile int count;
+    private int writeOffset;
+
+    /**
+     * Creates a store whose segments are direct (off-heap) memory.
+     * @param model The Huffman model payloads are compressed with.
+     * @param segmentSize Bytes per segment; also the largest payload stored.
+     */
+    public HuffmanBlobStore (Huffman model, int segmentSize) {
+        this(model, segmentSize, null);
+    }
+
+    private HuffmanBlobStore (Huffman model, int segmentSize, FileChannel file) {
+
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("segmentSize must be positive");
+        }
+        this.model = model;
+        this.segmentSize = segmentSize;
+        this.file = file;
+    }
+
+    /**
+     * Creates a store whose segments are consecutive regions of a
+     * memory-mapped file, created or truncated and grown as segments are added.
+     * @param model The Huffman model payloads are compressed with.
+     * @param path The backing file.
+     * @param segmentSize Bytes per segment; also the largest payload stored.
+     * @return The file-backed store; close it to release the file.
+     * @throws IOException If the file cannot be opened.
+     */
+    public static HuffmanBlobStore mapped (Huffman model, Path path, int segmentSize) throws IOException {
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return new HuffmanBlobStore(model, segmentSize, channel);
+    }
+
+    /**
+     * Compresses value into the current segment (starting a new one if it
+     * does not fit) and indexes it.
+     * @param value The String to store.
+     * @return The handle to read it back with.
+     * @throws IllegalArgumentException If value contains characters outside of
+     *         the model or compresses to more than one segment.
+     */
+    public synchronized int put (String value) {
+
+        long bitCount = model.estimateCompressedBits(value);
+        if (bitCount < 0) {
+            throw new IllegalArgumentException("Value contains characters outside of the Huffman model");
+        }
+        long byteCount = (bitCount + 7) / 8;
+        if (byteCount > segmentSize) {
+            throw new IllegalArgumentException("Compressed value of " + byteCount + " bytes exceeds the segment size");
+        }
+        if (segments.isEmpty() || writeOffset + byteCount > segmentSize) {
+            addSegment();
+        }
+
+        int segment = segments.size() - 1;
+        long address = (long) segment * segmentSize + writeOffset;
+        writeOffset += model.encodeInto(value, 0, value.length(), segments.get(segment), writeOffset);
+
+        long[] index = addresses;
+        if (count == index.length) {
+            index = Arrays.copyOf(index, index.length * 2);
+        }
+        index[count] = address;
+        addresses = index;
+        count++; // Publishes the payload to readers
+        return count - 1;
+    }
+
+    /**
+     * Decodes the payload with the given handle into a new String.
+     */
+    public String get (int handle) {
+
+        StringBuilder out = new StringBuilder();
+        get(handle, out);
+        return out.toString();
+    }
+
+    /**
+     * Decodes the payload with the given handle straight from segment memory,
+     * appending it to out.
+     */
+    public void get (int handle, StringBuilder out) {
+
+        long address = address(handle);
+        ByteBuffer segment = segmentTable[(int) (address / segmentSize)];
+        model.decodeInto(segment, (int) (address % segmentSize), segmentSize, out);
+    }
+
+    /**
+     * Decodes the payload with the given handle straight from segment memory
+     * into out.
+     * @return False if out ran out of room before the whole payload was
+     *         decoded, in which case out holds the decoded prefix.
+     */
+    public boolean get (int handle, CharBuffer out) {
+
+        long address = address(handle);
+        ByteBuffer segment = segmentTable[(int) (address / segmentSize)].duplicate();
+        segment.position((int) (address % segmentSize));
+        HuffmanDecoder decoder = model.newDecoder();
+        decoder.decode(segment, out);
+        return decoder.isFinished();
+    }
+
+    /**
+     * @return The number of payloads stored.
+     */
+    public int size () {
+        return count;
+    }
+
+    /**
+     * @return The number of segments allocated so far.
+     */
+    public synchronized int getSegmentCount () {
+        return segments.size();
+    }
+
+    /**
+     * Flushes file-mapped segments to the backing file; no-op for direct memory.
+     */
+    public synchronized void force () {
+
+        for (ByteBuffer segment : segments) {
+            if (segment instanceof MappedByteBuffer) {
+                ((MappedByteBuffer) segment).force();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close () throws IOException {
+
+        if (file != null) {
+            force();
+            file.close();
+        }
+    }
+
+    private long address (int handle) {
+
+        if (handle < 0 || handle >= count) {
+            throw new IndexOutOfBoundsException("Unknown handle " + handle);
+        }
+        return addresses[handle];
+    }
+
+    private void addSegment () {
+
+        ByteBuffer segment;
+        if (file == null) {
+            segment = ByteBuffer.allocateDirect(segmentSize);
+        } else {
+            try {
+                segment = file.map(FileChannel.MapMode.READ_WRITE, (long) segments.size() * segmentSize, segmentSize);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot map another segment of the backing file", e);
+            }
+        }
+        segments.add(segment);
+        segmentTable = segments.toArray(new ByteBuffer[0]);
+        writeOffset = 0;
+    }
+
+}
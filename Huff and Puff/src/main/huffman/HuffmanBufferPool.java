@@ -0,0 +1,76 @@
+package main.huffman;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A lock-free pool of equally sized direct ByteBuffers, so that channel I/O
+ * reuses native memory across requests instead of allocating (and later
+ * freeing through the GC) a direct buffer per request. Data larger than a
+ * buffer is streamed through it a chunk at a time, so no request ever needs
+ * direct memory beyond the pool.
+ */
+final class HuffmanBufferPool {
+
+    private static final HuffmanBufferPool SHARED = new HuffmanBufferPool(64 * 1024, 256);
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    /**
+     * @param bufferSize Capacity of every pooled buffer.
+     * @param maxPooled Most idle buffers kept; further releases are dropped.
+     */
+    HuffmanBufferPool (int bufferSize, int maxPooled) {
+
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * @return The pool shared by the server and the channel codecs.
+     */
+    static HuffmanBufferPool shared () {
+        return SHARED;
+    }
+
+    /**
+     * @return A cleared direct buffer of getBufferSize bytes.
+     */
+    ByteBuffer acquire () {
+
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        pooled.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer obtained from acquire; it must not be used afterwards.
+     */
+    void release (ByteBuffer buffer) {
+
+        if (buffer.capacity() != bufferSize || pooled.incrementAndGet() > maxPooled) {
+            if (buffer.capacity() == bufferSize) {
+                pooled.decrementAndGet();
+            }
+            return;
+        }
+        free.offer(buffer);
+    }
+
+    /**
+     * @return The capacity of pooled buffers.
+     */
+    int getBufferSize () {
+        return bufferSize;
+    }
+
+}
@@ -0,0 +1,79 @@
+package main.huffman;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HuffmanClient is one connection to a {@link HuffmanServer}. Requests on a
+ * connection are answered in order, so methods are synchronized; open one
+ * client per thread for concurrent requests.
+ */
+public class HuffmanClient implements Closeable {
+
+    private final SocketChannel channel;
+    private final ByteBuffer responseHeader = ByteBuffer.allocate(HuffmanServer.RESPONSE_HEADER_SIZE);
+
+    /**
+     * Connects to a server on the loopback interface.
+     * @param port The server's port.
+     * @throws IOException If the connection cannot be established.
+     */
+    public HuffmanClient (int port) throws IOException {
+        channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Compresses message with the server's model of the given name.
+     * @return Exactly what that model's compress would return.
+     * @throws IOException If the server rejects the request or the connection fails.
+     */
+    public synchronized byte[] compress (String model, String message) throws IOException {
+        return request(HuffmanServer.OP_COMPRESS, model, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decompresses compressedMsg with the server's model of the given name.
+     * @return Exactly what that model's decompress would return.
+     * @throws IOException If the server rejects the request or the connection fails.
+     */
+    public synchronized String decompress (String model, byte[] compressedMsg) throws IOException {
+        return new String(request(HuffmanServer.OP_DECOMPRESS, model, compressedMsg), StandardCharsets.UTF_8);
+    }
+
+    private byte[] request (byte op, String model, byte[] payload) throws IOException {
+
+        byte[] name = model.getBytes(StandardCharsets.UTF_8);
+        if (name.length > 0xFFFF) {
+            throw new IllegalArgumentException("Model names are limited to 65535 UTF-8 bytes");
+        }
+        ByteBuffer header = ByteBuffer.allocate(HuffmanServer.REQUEST_HEADER_SIZE);
+        header.put(op).putShort((short) name.length).putInt(payload.length).flip();
+        ByteBuffer[] request = {header, ByteBuffer.wrap(name), ByteBuffer.wrap(payload)};
+        long remaining = HuffmanServer.REQUEST_HEADER_SIZE + name.length + payload.length;
+        while (remaining > 0) {
+            remaining -= channel.write(request); // Gathering write, no copying into one frame
+        }
+
+        responseHeader.clear();
+        HuffmanServer.readFully(channel, responseHeader, false);
+        responseHeader.flip();
+        byte status = responseHeader.get();
+        ByteBuffer body = ByteBuffer.allocate(responseHeader.getInt());
+        HuffmanServer.readFully(channel, body, false);
+        if (status != HuffmanServer.STATUS_OK) {
+            throw new IOException("HuffmanServer rejected the request: " + new String(body.array(), StandardCharsets.UTF_8));
+        }
+        return body.array();
+    }
+
+    @Override
+    public void close () throws IOException {
+        channel.close();
+    }
+
+}
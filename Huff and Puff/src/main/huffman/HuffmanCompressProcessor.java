@@ -0,0 +1,46 @@
+package main.huffman;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+/**
+ * Flow stage that compresses a message arriving as a stream of CharBuffer
+ * chunks into a stream of ByteBuffer chunks. Concatenated, the emitted chunks
+ * are exactly what Huffman.compress returns for the whole message: bits that
+ * do not fill a byte are carried over to the next chunk, and completing the
+ * upstream emits the final chunk holding the ETB code and padding.
+ */
+public class HuffmanCompressProcessor extends HuffmanProcessor<CharBuffer, ByteBuffer> {
+
+    private final HuffmanEncoder encoder;
+
+    /**
+     * @param model The Huffman model to compress with.
+     */
+    public HuffmanCompressProcessor (Huffman model) {
+        this.encoder = model.newEncoder();
+    }
+
+    @Override
+    protected ByteBuffer transform (CharBuffer chunk) {
+
+        int maxBytes = encoder.maxEncodedBytes(chunk);
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Chunk contains characters outside of this Huffman model");
+        }
+        ByteBuffer output = ByteBuffer.allocate(maxBytes);
+        encoder.encode(chunk, output);
+        output.flip();
+        return output.hasRemaining() ? output : null;
+    }
+
+    @Override
+    protected ByteBuffer finish () {
+
+        ByteBuffer output = ByteBuffer.allocate(encoder.maxEncodedBytes(""));
+        encoder.finish(output);
+        output.flip();
+        return output.hasRemaining() ? output : null;
+    }
+
+}
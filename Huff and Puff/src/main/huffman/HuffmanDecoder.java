@@ -0,0 +1,66 @@
+package main.huffman;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+/**
+ * HuffmanDecoder decompresses one message that arrives in chunks, producing
+ * exactly the characters Huffman.decompress would produce for the whole
+ * message. The current trie node and any partially consumed byte are carried
+ * over between chunks. Instances are not thread-safe.
+ */
+public class HuffmanDecoder {
+
+    private final Huffman model;
+    private int node;
+    // Byte being consumed and how many of its low bits are still unread
+    private int currByte;
+    private int bitsLeft;
+    private boolean finished;
+
+    HuffmanDecoder (Huffman model) {
+
+        this.model = model;
+        // A trie of only the ETB leaf encodes nothing
+        this.finished = model.codeLength(Huffman.ETB_CHAR) == 0;
+    }
+
+    /**
+     * Decodes bytes from in into out until in is exhausted, out is full, or the
+     * ETB code ends the message.
+     * @param in Compressed bytes; its position is advanced past those consumed,
+     *        ending with the byte that holds the end of the ETB code.
+     * @param out Buffer receiving the decoded characters.
+     */
+    public void decode (ByteBuffer in, CharBuffer out) {
+
+        while (!finished && out.hasRemaining()) {
+            if (bitsLeft == 0) {
+                if (!in.hasRemaining()) {
+                    return;
+                }
+                currByte = in.get();
+                bitsLeft = 8;
+            }
+            bitsLeft--;
+            node = model.nextNode(node, (currByte >>> bitsLeft) & 1);
+            if (node < 0) {
+                char decoded = (char) ~node;
+                node = 0;
+                if (decoded == Huffman.ETB_CHAR) {
+                    finished = true;
+                } else {
+                    out.put(decoded);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return True once the ETB code ending the message has been decoded.
+     */
+    public boolean isFinished () {
+        return finished;
+    }
+
+}
@@ -0,0 +1,52 @@
+package main.huffman;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+/**
+ * Flow stage that decompresses a message arriving as a stream of ByteBuffer
+ * chunks into a stream of CharBuffer chunks. Concatenated, the emitted chunks
+ * are exactly what Huffman.decompress returns for the whole message: the
+ * decoder's position in the trie is carried over between chunks, and any
+ * bytes after the ETB code are ignored. If upstream completes before the ETB
+ * code arrives, the subscriber gets onError rather than a truncated message.
+ */
+public class HuffmanDecompressProcessor extends HuffmanProcessor<ByteBuffer, CharBuffer> {
+
+    private final HuffmanDecoder decoder;
+
+    /**
+     * @param model The Huffman model the message was compressed with.
+     */
+    public HuffmanDecompressProcessor (Huffman model) {
+        this.decoder = model.newDecoder();
+    }
+
+    @Override
+    protected CharBuffer transform (ByteBuffer chunk) {
+
+        CharBuffer output = CharBuffer.allocate(Math.max(16, chunk.remaining() * 2));
+        decoder.decode(chunk, output);
+        while (chunk.hasRemaining() && !decoder.isFinished()) {
+            CharBuffer grown = CharBuffer.allocate(output.capacity() * 2);
+            output.flip();
+            grown.put(output);
+            output = grown;
+            decoder.decode(chunk, output);
+        }
+        output.flip();
+        return output.hasRemaining() ? output : null;
+    }
+
+    @Override
+    protected CharBuffer finish () {
+
+        if (!decoder.isFinished()) {
+            throw new UncheckedIOException(new IOException("Compressed message ends before its ETB code"));
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,106 @@
+package main.huffman;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+/**
+ * HuffmanEncoder compresses one message that arrives in chunks, producing
+ * exactly the bytes Huffman.compress would produce for the whole message.
+ * Bits that do not yet fill a byte are carried over to the next chunk, and
+ * finish appends the ETB code and 0-padding. Instances are not thread-safe.
+ */
+public class HuffmanEncoder {
+
+    private final Huffman model;
+    // The low pendingBits bits of accumulator are waiting to fill a byte
+    private long accumulator;
+    private int pendingBits;
+    private boolean finished;
+
+    HuffmanEncoder (Huffman model) {
+        this.model = model;
+    }
+
+    /**
+     * Encodes characters from in into out until in is exhausted or out does
+     * not have room for the bytes completed by the next character.
+     * @param in Characters to encode; its position is advanced past those encoded.
+     * @param out Buffer receiving completed bytes; its position is advanced.
+     * @throws IllegalArgumentException If a character is outside of the model.
+     */
+    public void encode (CharBuffer in, ByteBuffer out) {
+
+        if (finished) {
+            throw new IllegalStateException("Encoder has already finished its message");
+        }
+        while (in.hasRemaining()) {
+            char currChar = in.get(in.position());
+            int length = model.codeLength(currChar);
+            if (length < 0) {
+                throw new IllegalArgumentException("Character " + (int) currChar + " is outside of this Huffman model");
+            }
+            if ((pendingBits + length) / 8 > out.remaining()) {
+                return;
+            }
+            append(model.codeBits(currChar), length, out);
+            in.position(in.position() + 1);
+        }
+    }
+
+    /**
+     * Writes the ETB code and the final, 0-padded byte.
+     * @param out Buffer receiving the remaining bytes.
+     * @return False if out did not have room for them, in which case nothing
+     *         was written and finish should be called again with more room.
+     */
+    public boolean finish (ByteBuffer out) {
+
+        if (finished) {
+            return true;
+        }
+        int length = model.codeLength(Huffman.ETB_CHAR);
+        if ((pendingBits + length + 7) / 8 > out.remaining()) {
+            return false;
+        }
+        append(model.codeBits(Huffman.ETB_CHAR), length, out);
+        if (pendingBits > 0) {
+            out.put((byte) (accumulator << (8 - pendingBits))); // Adds padding
+            pendingBits = 0;
+        }
+        finished = true;
+        return true;
+    }
+
+    /**
+     * @return The most bytes encoding the given characters and then finishing
+     *         can produce, useful for sizing out.
+     */
+    public int maxEncodedBytes (CharSequence chars) {
+
+        long bitCount = model.estimateCompressedBits(chars, 0, chars.length());
+        return bitCount < 0 ? -1 : (int) ((pendingBits + bitCount + 7) / 8);
+    }
+
+    /**
+     * @return True once finish has written the end of the message.
+     */
+    public boolean isFinished () {
+        return finished;
+    }
+
+    private void append (long bits, int length, ByteBuffer out) {
+
+        if (length > 32) { // Splits very long codes so the accumulator never overflows
+            append(bits >>> 32, length - 32, out);
+            length = 32;
+            bits &= 0xFFFFFFFFL;
+        }
+        accumulator = (accumulator << length) | bits;
+        pendingBits += length;
+        while (pendingBits >= 8) {
+            pendingBits -= 8;
+            out.put((byte) (accumulator >>> pendingBits));
+        }
+    }
+
+}
@@ -0,0 +1,136 @@
+package main.huffman;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Custom Java Flight Recorder events emitted by Huffman model construction,
+ * compression and decompression. They cost next to nothing unless a
+ * recording enables them (e.g. {@code -XX:StartFlightRecording} with
+ * {@code main.huffman.*} events enabled), and then show which callers and
+ * models spend the time.
+ */
+final class HuffmanEvents {
+
+    private HuffmanEvents () {
+    }
+
+    @Name("main.huffman.Build")
+    @Label("Huffman Model Build")
+    @Category("Huffman")
+    @StackTrace(false)
+    static class Build extends Event {
+
+        @Label("Model ID")
+        long modelId;
+
+        @Label("Symbol Count")
+        @Description("Distinct characters in the model, including the ETB character")
+        int symbolCount;
+
+        @Label("Corpus Size")
+        @Description("Sum of all character frequencies the model was built from")
+        long corpusSize;
+
+        void complete (long modelId, int symbolCount, long corpusSize) {
+
+            end();
+            if (shouldCommit()) {
+                this.modelId = modelId;
+                this.symbolCount = symbolCount;
+                this.corpusSize = corpusSize;
+                commit();
+            }
+        }
+    }
+
+    /**
+     * Fields shared by the compress and decompress events. Each subclass
+     * declares its own inputSize and outputSize, since sizes are in
+     * characters on the uncompressed side and in bytes on the compressed side.
+     */
+    abstract static class Operation extends Event {
+
+        @Label("Model ID")
+        long modelId;
+
+        @Label("Symbol Count")
+        int symbolCount;
+
+        @Label("Ratio")
+        @Description("Compressed bytes per uncompressed character")
+        double ratio;
+
+        abstract void complete (Huffman model, long inputSize, long outputSize);
+
+        abstract void setSizes (long inputSize, long outputSize);
+
+        void complete (Huffman model, long inputSize, long outputSize, long compressedBytes, long characters) {
+
+            end();
+            if (shouldCommit()) {
+                this.modelId = model.getModelId();
+                this.symbolCount = model.getSymbolCount();
+                setSizes(inputSize, outputSize);
+                this.ratio = characters == 0 ? 0 : (double) compressedBytes / characters;
+                commit();
+            }
+        }
+    }
+
+    @Name("main.huffman.Compress")
+    @Label("Huffman Compress")
+    @Category("Huffman")
+    static class Compress extends Operation {
+
+        @Label("Input Size")
+        @Description("Characters compressed")
+        long inputSize;
+
+        @Label("Output Size")
+        @DataAmount(DataAmount.BYTES)
+        long outputSize;
+
+        @Override
+        void complete (Huffman model, long inputChars, long outputBytes) {
+            complete(model, inputChars, outputBytes, outputBytes, inputChars);
+        }
+
+        @Override
+        void setSizes (long inputSize, long outputSize) {
+            this.inputSize = inputSize;
+            this.outputSize = outputSize;
+        }
+    }
+
+    @Name("main.huffman.Decompress")
+    @Label("Huffman Decompress")
+    @Category("Huffman")
+    static class Decompress extends Operation {
+
+        @Label("Input Size")
+        @DataAmount(DataAmount.BYTES)
+        long inputSize;
+
+        @Label("Output Size")
+        @Description("Characters decompressed")
+        long outputSize;
+
+        @Override
+        void complete (Huffman model, long inputBytes, long outputChars) {
+            complete(model, inputBytes, outputChars, inputBytes, outputChars);
+        }
+
+        @Override
+        void setSizes (long inputSize, long outputSize) {
+            this.inputSize = inputSize;
+            this.outputSize = outputSize;
+        }
+    }
+
+}
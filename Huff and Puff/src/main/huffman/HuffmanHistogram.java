@@ -0,0 +1,317 @@
+package main.huffman;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Data-parallel kernels behind Huffman model training, size estimation and
+ * encoding. Characters are copied out of the String in chunks into reusable
+ * per-thread arrays so the hot loops run over plain arrays.
+ * <p>
+ * With {@code -Dmain.huffman.vector=true}, vector.huffman.HuffmanVectorKernels
+ * on the classpath and the jdk.incubator.vector module resolved, the loops
+ * run on the Vector API: histograms through conflict-free gathers and
+ * scatters into one sub-histogram per vector lane, and code lengths and bits
+ * through gathers. Otherwise, including by default since JDK 17's gathers
+ * measure slower than these on AVX-512, they run as scalar loops unrolled
+ * four ways into independent lanes: four sub-histograms, so that runs of the
+ * same character do not serialize on one counter, and four partial
+ * code-length sums, so that the additions do not form one dependency chain.
+ */
+final class HuffmanHistogram {
+
+    static final int CHUNK_SIZE = 4096;
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    // The Vector API kernels, or null unless enabled with -Dmain.huffman.vector=true and available
+    private static final MethodHandle VECTOR_HISTOGRAM;
+    private static final MethodHandle VECTOR_SUM;
+    private static final MethodHandle VECTOR_GATHER;
+    // The number of interleaved sub-histograms for characters below 256
+    private static final int LANES;
+
+    static {
+        MethodHandle histogram = null;
+        MethodHandle sum = null;
+        MethodHandle gather = null;
+        int lanes = 4;
+        if (Boolean.getBoolean("main.huffman.vector")) {
+            try {
+                Class<?> kernels = Class.forName("vector.huffman.HuffmanVectorKernels");
+                MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                histogram = lookup.findStatic(kernels, "histogram",
+                        MethodType.methodType(void.class, char[].class, int.class, int[].class, int[].class));
+                sum = lookup.findStatic(kernels, "sumCodeLengths",
+                        MethodType.methodType(long.class, char[].class, int.class, int[].class, int[].class));
+                gather = lookup.findStatic(kernels, "gatherCodes", MethodType.methodType(void.class,
+                        char[].class, int.class, int[].class, long[].class, int[].class, long[].class, int[].class));
+                lanes = kernels.getField("LANES").getInt(null);
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // Not compiled in, or jdk.incubator.vector is absent: keep to the scalar loops
+                histogram = null;
+                sum = null;
+                gather = null;
+                lanes = 4;
+            }
+        }
+        VECTOR_HISTOGRAM = histogram;
+        VECTOR_SUM = sum;
+        VECTOR_GATHER = gather;
+        LANES = lanes;
+    }
+
+    private HuffmanHistogram () {
+    }
+
+    /**
+     * @return True if the kernels run on the Vector API.
+     */
+    static boolean isVectorized () {
+        return VECTOR_HISTOGRAM != null;
+    }
+
+    /**
+     * Counts every character of corpus.
+     * @return Counts indexed by character, sized to the largest character + 1.
+     */
+    static int[] count (String corpus) {
+
+        Scratch scratch = SCRATCH.get();
+        char[] chunk = scratch.chars;
+        int length = corpus.length();
+
+        // Characters below 256 go to LANES interleaved sub-histograms, so
+        // latin1[c * LANES + k] counts the c's of lane k; the rest go to one
+        // table grown to the largest character seen so far
+        int[] latin1 = new int[256 * LANES];
+        int[] wide = null;
+        for (int start = 0; start < length; start += CHUNK_SIZE) {
+            int end = Math.min(length, start + CHUNK_SIZE);
+            int n = end - start;
+            corpus.getChars(start, end, chunk, 0);
+            int any = 0;
+            for (int i = 0; i < n; i++) {
+                any |= chunk[i];
+            }
+            if (any < 256 && VECTOR_HISTOGRAM != null) {
+                vectorHistogram(chunk, n, latin1, scratch.indices);
+            } else if (any < 256) { // LANES is 4 without the Vector API
+                int i = 0;
+                for (; i + 3 < n; i += 4) {
+                    latin1[chunk[i] * 4]++;
+                    latin1[chunk[i + 1] * 4 + 1]++;
+                    latin1[chunk[i + 2] * 4 + 2]++;
+                    latin1[chunk[i + 3] * 4 + 3]++;
+                }
+                for (; i < n; i++) {
+                    latin1[chunk[i] * 4]++;
+                }
+            } else {
+                for (int i = 0; i < n; i++) {
+                    char c = chunk[i];
+                    if (c < 256) {
+                        latin1[c * LANES]++;
+                    } else {
+                        if (wide == null) {
+                            wide = new int[c + 1];
+                        } else if (c >= wide.length) {
+                            wide = Arrays.copyOf(wide, Math.min(Character.MAX_VALUE + 1, Math.max(c + 1, 2 * wide.length)));
+                        }
+                        wide[c]++;
+                    }
+                }
+            }
+        }
+
+        int maxChar = 0;
+        for (int c = wide == null ? 0 : wide.length - 1; c >= 256; c--) {
+            if (wide[c] > 0) {
+                maxChar = c;
+                break;
+            }
+        }
+        int[] counts = maxChar < 256 ? new int[256] : Arrays.copyOf(wide, maxChar + 1);
+        for (int c = 0; c < 256; c++) {
+            int sum = 0;
+            for (int k = 0; k < LANES; k++) {
+                sum += latin1[c * LANES + k];
+            }
+            counts[c] = sum;
+            if (sum > 0 && maxChar < 256) {
+                maxChar = c;
+            }
+        }
+        return maxChar + 1 == counts.length ? counts : Arrays.copyOf(counts, maxChar + 1);
+    }
+
+    /**
+     * Counts every character of corpus.
+     * @return Map of each unique character to its frequency, in order of each
+     *         character's first appearance in corpus.
+     */
+    static Map<Character, Integer> frequencies (String corpus) {
+
+        int[] counts = count(corpus);
+        int distinct = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                distinct++;
+            }
+        }
+
+        // Usually every distinct character shows up early, ending this pass long before the corpus does:
+        Map<Character, Integer> frequencyMap = new LinkedHashMap<>();
+        boolean[] added = new boolean[counts.length];
+        for (int i = 0; i < corpus.length() && frequencyMap.size() < distinct; i++) {
+            char currChar = corpus.charAt(i);
+            if (!added[currChar]) {
+                added[currChar] = true;
+                frequencyMap.put(currChar, counts[currChar]);
+            }
+        }
+        return frequencyMap;
+    }
+
+    /**
+     * Sums the code lengths of message[from, to).
+     * @param codeLengths Code length of every character, -1 when absent.
+     * @return The sum, or -1 if a character has no code.
+     */
+    static long sumCodeLengths (String message, int from, int to, int[] codeLengths) {
+
+        Scratch scratch = SCRATCH.get();
+        char[] chunk = scratch.chars;
+        long sum = 0;
+        for (int start = from; start < to; start += CHUNK_SIZE) {
+            int end = Math.min(to, start + CHUNK_SIZE);
+            message.getChars(start, end, chunk, 0);
+            long chunkSum = VECTOR_SUM != null
+                    ? vectorSum(chunk, end - start, codeLengths, scratch.indices)
+                    : scalarSum(chunk, end - start, codeLengths);
+            if (chunkSum < 0) {
+                return -1;
+            }
+            sum += chunkSum;
+        }
+        return sum;
+    }
+
+    /**
+     * Looks up the codes of message[from, to), at most CHUNK_SIZE characters
+     * that must all have a code, followed by the ETB code if withEtb, into the
+     * calling thread's scratch lengths and bits arrays.
+     * @return The scratch holding the codes in lengths[0, n) and bits[0, n),
+     *         where n is the number of codes looked up.
+     */
+    static Scratch gatherCodes (CharSequence message, int from, int to, boolean withEtb,
+                                int[] codeLengths, long[] codeBits) {
+
+        Scratch scratch = SCRATCH.get();
+        int n = to - from;
+        if (message instanceof String) {
+            ((String) message).getChars(from, to, scratch.chars, 0);
+            if (VECTOR_GATHER != null) {
+                vectorGather(scratch.chars, n, codeLengths, codeBits, scratch);
+            } else {
+                for (int i = 0; i < n; i++) {
+                    char c = scratch.chars[i];
+                    scratch.lengths[i] = codeLengths[c];
+                    scratch.bits[i] = codeBits[c];
+                }
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                char c = message.charAt(from + i);
+                scratch.lengths[i] = codeLengths[c];
+                scratch.bits[i] = codeBits[c];
+            }
+        }
+        if (withEtb) {
+            scratch.lengths[n] = codeLengths[Huffman.ETB_CHAR];
+            scratch.bits[n] = codeBits[Huffman.ETB_CHAR];
+            n++;
+        }
+        scratch.count = n;
+        return scratch;
+    }
+
+    private static long scalarSum (char[] chunk, int n, int[] codeLengths) {
+
+        int tableSize = codeLengths.length;
+        long sum0 = 0;
+        long sum1 = 0;
+        int missing = 0;
+        int i = 0;
+        for (; i + 3 < n; i += 4) {
+            char c0 = chunk[i];
+            char c1 = chunk[i + 1];
+            char c2 = chunk[i + 2];
+            char c3 = chunk[i + 3];
+            if (Math.max(Math.max(c0, c1), Math.max(c2, c3)) >= tableSize) {
+                return -1;
+            }
+            int l0 = codeLengths[c0];
+            int l1 = codeLengths[c1];
+            int l2 = codeLengths[c2];
+            int l3 = codeLengths[c3];
+            missing |= l0 | l1 | l2 | l3; // Any -1 makes this negative
+            sum0 += l0 + l1;
+            sum1 += l2 + l3;
+        }
+        for (; i < n; i++) {
+            char c = chunk[i];
+            if (c >= tableSize) {
+                return -1;
+            }
+            missing |= codeLengths[c];
+            sum0 += codeLengths[c];
+        }
+        return missing < 0 ? -1 : sum0 + sum1;
+    }
+
+    private static void vectorHistogram (char[] chunk, int n, int[] counts, int[] indices) {
+
+        try {
+            VECTOR_HISTOGRAM.invokeExact(chunk, n, counts, indices);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Vector histogram kernel failed", e);
+        }
+    }
+
+    private static long vectorSum (char[] chunk, int n, int[] codeLengths, int[] indices) {
+
+        try {
+            return (long) VECTOR_SUM.invokeExact(chunk, n, codeLengths, indices);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Vector code length kernel failed", e);
+        }
+    }
+
+    private static void vectorGather (char[] chunk, int n, int[] codeLengths, long[] codeBits, Scratch scratch) {
+
+        try {
+            VECTOR_GATHER.invokeExact(chunk, n, codeLengths, codeBits, scratch.lengths, scratch.bits, scratch.indices);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Vector code gathering kernel failed", e);
+        }
+    }
+
+    /**
+     * Per-thread buffers: a chunk of characters, their indices for the
+     * Vector API's gathers, and the codes gathered for encoding.
+     */
+    static final class Scratch {
+
+        final char[] chars = new char[CHUNK_SIZE];
+        final int[] indices = new int[CHUNK_SIZE];
+        // One more code than characters, for the ETB code
+        final int[] lengths = new int[CHUNK_SIZE + 1];
+        final long[] bits = new long[CHUNK_SIZE + 1];
+        int count;
+    }
+
+}
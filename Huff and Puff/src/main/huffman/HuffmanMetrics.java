@@ -0,0 +1,165 @@
+package main.huffman;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HuffmanMetrics is a lightweight, lock-free registry of counters and latency
+ * histograms for Huffman operations. Every Huffman instance records into the
+ * global registry; it can be polled with snapshot or written to a local file
+ * with exportTo, without attaching a profiler.
+ */
+public class HuffmanMetrics {
+
+    /**
+     * The instrumented operations. Sizes are in characters on the
+     * uncompressed side and in bytes on the compressed side; a BUILD's input
+     * size is the corpus size and its output size the symbol count.
+     */
+    public enum Operation { BUILD, COMPRESS, DECOMPRESS }
+
+    private static final HuffmanMetrics GLOBAL = new HuffmanMetrics();
+    // Latencies are bucketed by power of two: bucket b counts [2^b, 2^(b+1)) ns
+    private static final int LATENCY_BUCKETS = 64;
+
+    private final LongAdder[] counts = new LongAdder[Operation.values().length];
+    private final LongAdder[] inputSizes = new LongAdder[Operation.values().length];
+    private final LongAdder[] outputSizes = new LongAdder[Operation.values().length];
+    private final AtomicLongArray[] latencies = new AtomicLongArray[Operation.values().length];
+
+    /**
+     * Creates an empty registry. Huffman records into {@link #global()}.
+     */
+    public HuffmanMetrics () {
+
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+            inputSizes[i] = new LongAdder();
+            outputSizes[i] = new LongAdder();
+            latencies[i] = new AtomicLongArray(LATENCY_BUCKETS);
+        }
+    }
+
+    /**
+     * @return The registry every Huffman instance records into.
+     */
+    public static HuffmanMetrics global () {
+        return GLOBAL;
+    }
+
+    /**
+     * Records one completed operation.
+     * @param operation The operation performed.
+     * @param nanos How long it took.
+     * @param inputSize Its input size.
+     * @param outputSize Its output size.
+     */
+    public void record (Operation operation, long nanos, long inputSize, long outputSize) {
+
+        int i = operation.ordinal();
+        counts[i].increment();
+        inputSizes[i].add(inputSize);
+        outputSizes[i].add(outputSize);
+        latencies[i].incrementAndGet(63 - Long.numberOfLeadingZeros(Math.max(1, nanos)));
+    }
+
+    public long getCount (Operation operation) {
+        return counts[operation.ordinal()].sum();
+    }
+
+    public long getInputSize (Operation operation) {
+        return inputSizes[operation.ordinal()].sum();
+    }
+
+    public long getOutputSize (Operation operation) {
+        return outputSizes[operation.ordinal()].sum();
+    }
+
+    /**
+     * Returns an upper bound on the given latency percentile, accurate to
+     * within a factor of two.
+     * @param operation The operation.
+     * @param percentile Percentile in [0, 100], e.g. 99.
+     * @return The upper bound in nanoseconds, or 0 if nothing was recorded.
+     */
+    public long getLatencyPercentile (Operation operation, double percentile) {
+
+        AtomicLongArray buckets = latencies[operation.ordinal()];
+        long total = 0;
+        for (int b = 0; b < LATENCY_BUCKETS; b++) {
+            total += buckets.get(b);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100.0 * total);
+        long seen = 0;
+        for (int b = 0; b < LATENCY_BUCKETS; b++) {
+            seen += buckets.get(b);
+            if (seen >= Math.max(1, rank)) {
+                return b >= 62 ? Long.MAX_VALUE : 1L << (b + 1);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * @return Every metric by name, e.g. "compress.count", "compress.input",
+     *         "compress.output", "compress.p50.ns" and "compress.p99.ns".
+     */
+    public Map<String, Long> snapshot () {
+
+        Map<String, Long> snapshot = new LinkedHashMap<>();
+        for (Operation operation : Operation.values()) {
+            String prefix = operation.name().toLowerCase() + ".";
+            snapshot.put(prefix + "count", getCount(operation));
+            snapshot.put(prefix + "input", getInputSize(operation));
+            snapshot.put(prefix + "output", getOutputSize(operation));
+            snapshot.put(prefix + "p50.ns", getLatencyPercentile(operation, 50));
+            snapshot.put(prefix + "p99.ns", getLatencyPercentile(operation, 99));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Writes the snapshot to file as "name=value" lines, replacing the file
+     * atomically so that pollers never read a partial export.
+     * @param file The file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public void exportTo (Path file) throws IOException {
+
+        Path absolute = file.toAbsolutePath();
+        Path temp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+        try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Long> metric : snapshot().entrySet()) {
+                out.write(metric.getKey() + "=" + metric.getValue() + "\n");
+            }
+        }
+        Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Clears every counter and histogram.
+     */
+    public void reset () {
+
+        for (int i = 0; i < counts.length; i++) {
+            counts[i].reset();
+            inputSizes[i].reset();
+            outputSizes[i].reset();
+            for (int b = 0; b < LATENCY_BUCKETS; b++) {
+                latencies[i].set(b, 0);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,211 @@
+package main.huffman;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Common plumbing of the compression and decompression Flow stages: a single
+ * downstream subscriber, demand forwarded upstream one-for-one, and a drain
+ * loop that serializes every downstream signal without blocking or taking
+ * locks. Each upstream chunk is transformed on the thread that delivers it
+ * into at most one downstream chunk, so no more chunks are ever buffered than
+ * the subscriber has requested.
+ */
+abstract class HuffmanProcessor<I, O> implements Flow.Processor<I, O> {
+
+    private final AtomicReference<Flow.Subscription> upstream = new AtomicReference<>();
+    private final AtomicReference<Flow.Subscriber<? super O>> downstream = new AtomicReference<>();
+    private final Queue<O> ready = new ConcurrentLinkedQueue<>();
+    // Downstream demand not yet satisfied, and demand received before upstream subscribed
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicLong deferredRequests = new AtomicLong();
+    private final AtomicInteger drainers = new AtomicInteger();
+    private volatile boolean upstreamDone;
+    private volatile boolean cancelled;
+    private volatile Throwable error;
+    private boolean terminated;
+
+    /**
+     * Transforms one upstream chunk, carrying any state over to the next.
+     * @return The downstream chunk, or null if this chunk produced no output yet.
+     */
+    protected abstract O transform (I item);
+
+    /**
+     * Flushes whatever state is left once upstream has completed.
+     * @return The final downstream chunk, or null if there is nothing left.
+     */
+    protected abstract O finish ();
+
+    // -----------------------------------------------
+    // Upstream side
+    // -----------------------------------------------
+
+    @Override
+    public void onSubscribe (Flow.Subscription subscription) {
+
+        if (!upstream.compareAndSet(null, subscription)) {
+            subscription.cancel();
+            return;
+        }
+        if (cancelled) {
+            subscription.cancel();
+            return;
+        }
+        long deferred = deferredRequests.getAndSet(0);
+        if (deferred > 0) {
+            subscription.request(deferred);
+        }
+    }
+
+    @Override
+    public void onNext (I item) {
+
+        if (upstreamDone || cancelled) {
+            return;
+        }
+        O output;
+        try {
+            output = transform(item);
+        } catch (RuntimeException e) {
+            upstream.get().cancel();
+            onError(e);
+            return;
+        }
+        if (output == null) {
+            upstream.get().request(1); // Nothing to deliver, so ask for another chunk instead
+        } else {
+            ready.offer(output);
+        }
+        drain();
+    }
+
+    @Override
+    public void onError (Throwable throwable) {
+
+        if (upstreamDone) {
+            return;
+        }
+        error = throwable;
+        upstreamDone = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete () {
+
+        if (upstreamDone) {
+            return;
+        }
+        try {
+            O output = finish();
+            if (output != null) {
+                ready.offer(output);
+            }
+        } catch (RuntimeException e) {
+            error = e;
+        }
+        upstreamDone = true;
+        drain();
+    }
+
+    // -----------------------------------------------
+    // Downstream side
+    // -----------------------------------------------
+
+    @Override
+    public void subscribe (Flow.Subscriber<? super O> subscriber) {
+
+        if (!downstream.compareAndSet(null, subscriber)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                public void request (long n) { }
+                public void cancel () { }
+            });
+            subscriber.onError(new IllegalStateException("Huffman processors support a single subscriber"));
+            return;
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+
+            public void request (long n) {
+
+                if (n <= 0) {
+                    error = new IllegalArgumentException("Subscriber requested a non-positive number of chunks");
+                    cancel();
+                    upstreamDone = true;
+                    drain();
+                    return;
+                }
+                addCapped(demand, n);
+                Flow.Subscription subscription = upstream.get();
+                if (subscription == null) {
+                    addCapped(deferredRequests, n);
+                    // Upstream may have subscribed in between; hand over what was deferred
+                    subscription = upstream.get();
+                    if (subscription != null) {
+                        long deferred = deferredRequests.getAndSet(0);
+                        if (deferred > 0) {
+                            subscription.request(deferred);
+                        }
+                    }
+                } else {
+                    subscription.request(n);
+                }
+                drain();
+            }
+
+            public void cancel () {
+
+                cancelled = true;
+                Flow.Subscription subscription = upstream.get();
+                if (subscription != null) {
+                    subscription.cancel();
+                }
+            }
+        });
+        drain();
+    }
+
+    /**
+     * Delivers ready chunks while there is demand, then the terminal signal.
+     * Only one thread drains at a time; others just record that another pass
+     * is needed.
+     */
+    private void drain () {
+
+        if (drainers.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            Flow.Subscriber<? super O> subscriber = downstream.get();
+            if (subscriber != null && !terminated) {
+                if (cancelled) {
+                    ready.clear();
+                } else if (error != null) {
+                    ready.clear();
+                    terminated = true;
+                    subscriber.onError(error);
+                } else {
+                    while (demand.get() > 0 && !ready.isEmpty()) {
+                        demand.decrementAndGet();
+                        subscriber.onNext(ready.poll());
+                    }
+                    if (upstreamDone && ready.isEmpty()) {
+                        terminated = true;
+                        subscriber.onComplete();
+                    }
+                }
+            }
+            missed = drainers.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private static void addCapped (AtomicLong counter, long n) {
+        counter.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+    }
+
+}
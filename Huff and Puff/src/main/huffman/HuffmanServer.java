@@ -0,0 +1,406 @@
+package main.huffman;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * HuffmanServer hosts named Huffman models in one process and serves
+ * compress / decompress requests to local clients (see {@link HuffmanClient})
+ * over a length-prefixed TCP protocol, so services share one set of models
+ * and one warm JIT profile instead of embedding their own copies.
+ * <p>
+ * Every request is {@code op:u8 nameLength:u16 payloadLength:u32 name payload}
+ * and every response {@code status:u8 bodyLength:u32 body}. Compress requests
+ * carry UTF-8 text and are answered with the compressed bytes; decompress
+ * requests the reverse. Failed requests are answered with a UTF-8 error
+ * message and leave the connection open.
+ * <p>
+ * Each connection is served by blocking reads and writes on its own virtual
+ * thread when the JDK provides them (21+), otherwise on a pooled platform
+ * thread. Request and response bytes stream through one pooled direct buffer
+ * per request, a chunk at a time, so however large a request is, it takes no
+ * direct memory beyond the pool; only the message itself is held on the heap.
+ */
+public class HuffmanServer implements Closeable {
+
+    static final byte OP_COMPRESS = 1;
+    static final byte OP_DECOMPRESS = 2;
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_ERROR = 1;
+    static final int REQUEST_HEADER_SIZE = 7;
+    static final int RESPONSE_HEADER_SIZE = 5;
+    // Largest request payload accepted; larger requests close the connection
+    static final int MAX_PAYLOAD_SIZE = 64 * 1024 * 1024;
+    // Characters decoded per step of a decompress request
+    private static final int DECODE_CHUNK_SIZE = 8192;
+
+    private final Map<String, Huffman> models = new ConcurrentHashMap<>();
+    private final Set<SocketChannel> connections = ConcurrentHashMap.newKeySet();
+    private final HuffmanBufferPool bufferPool = HuffmanBufferPool.shared();
+    private final ServerSocketChannel serverChannel;
+    private final ExecutorService connectionExecutor;
+    private final Thread acceptThread;
+    private volatile boolean closed;
+
+    /**
+     * Starts a server listening on the loopback interface.
+     * @param port Port to listen on, or 0 for any free port (see getPort).
+     * @throws IOException If the port cannot be bound.
+     */
+    public HuffmanServer (int port) throws IOException {
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        connectionExecutor = newConnectionExecutor();
+        acceptThread = new Thread(this::acceptLoop, "huffman-server-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * Hosts model under the given name, replacing any model of that name.
+     * Models may be registered while the server is running.
+     */
+    public void register (String name, Huffman model) {
+
+        if (name.getBytes(StandardCharsets.UTF_8).length > 0xFFFF) {
+            throw new IllegalArgumentException("Model names are limited to 65535 UTF-8 bytes");
+        }
+        models.put(name, model);
+    }
+
+    /**
+     * @return The port the server is listening on.
+     */
+    public int getPort () {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Stops accepting connections and closes every open connection.
+     */
+    @Override
+    public void close () throws IOException {
+
+        closed = true;
+        serverChannel.close();
+        for (SocketChannel connection : connections) {
+            connection.close();
+        }
+        connectionExecutor.shutdownNow();
+    }
+
+    /**
+     * @return A virtual-thread-per-task executor where the JDK has one, found
+     *         reflectively so this still compiles and runs on older JDKs,
+     *         otherwise a cached pool of daemon platform threads.
+     */
+    static ExecutorService newConnectionExecutor () {
+
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "huffman-server-connection");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private void acceptLoop () {
+
+        while (!closed) {
+            SocketChannel connection;
+            try {
+                connection = serverChannel.accept();
+            } catch (IOException e) {
+                return; // Closed
+            }
+            connections.add(connection);
+            try {
+                connectionExecutor.execute(() -> serve(connection));
+            } catch (RejectedExecutionException e) {
+                closeQuietly(connection);
+            }
+        }
+    }
+
+    /**
+     * Answers requests on one connection until the client disconnects.
+     */
+    private void serve (SocketChannel connection) {
+
+        ByteBuffer header = ByteBuffer.allocateDirect(REQUEST_HEADER_SIZE);
+        CharsetDecoder utf8Decoder = StandardCharsets.UTF_8.newDecoder();
+        CharsetEncoder utf8Encoder = StandardCharsets.UTF_8.newEncoder();
+        try {
+            while (!closed) {
+                header.clear();
+                if (!readFully(connection, header, true)) {
+                    return;
+                }
+                header.flip();
+                byte op = header.get();
+                int nameLength = header.getShort() & 0xFFFF;
+                int payloadLength = header.getInt();
+                if (payloadLength < 0 || payloadLength > MAX_PAYLOAD_SIZE) {
+                    writeError(connection, "Payload of " + (payloadLength & 0xFFFFFFFFL) + " bytes exceeds the server limit");
+                    return;
+                }
+
+                // The shared pool's 64 KB buffers fit even the longest (65535-byte) name
+                ByteBuffer buffer = bufferPool.acquire();
+                try {
+                    buffer.limit(nameLength);
+                    readFully(connection, buffer, false);
+                    buffer.flip();
+                    String modelName = StandardCharsets.UTF_8.decode(buffer).toString();
+                    Huffman model = models.get(modelName);
+                    if (model == null) {
+                        skip(connection, buffer, payloadLength);
+                        writeError(connection, "Unknown model " + modelName);
+                    } else if (op == OP_COMPRESS) {
+                        compress(connection, model, buffer, payloadLength, utf8Decoder);
+                    } else if (op == OP_DECOMPRESS) {
+                        decompress(connection, model, buffer, payloadLength, utf8Encoder);
+                    } else {
+                        skip(connection, buffer, payloadLength);
+                        writeError(connection, "Unknown operation " + op);
+                    }
+                } finally {
+                    bufferPool.release(buffer);
+                }
+            }
+        } catch (IOException e) {
+            // The client went away mid-request; nothing left to answer
+        } finally {
+            connections.remove(connection);
+            closeQuietly(connection);
+        }
+    }
+
+    /**
+     * Reads the UTF-8 payload through buffer a chunk at a time, decoding it
+     * as it arrives, then streams the compressed response back through buffer.
+     */
+    private void compress (SocketChannel connection, Huffman model, ByteBuffer buffer, int payloadLength,
+                           CharsetDecoder utf8Decoder) throws IOException {
+
+        // Grows with the text received, not with the length the header claims
+        CharBuffer message = CharBuffer.allocate(Math.min(payloadLength, buffer.capacity()));
+        CoderResult result = CoderResult.UNDERFLOW;
+        utf8Decoder.reset();
+        buffer.clear();
+        int remaining = payloadLength;
+        do {
+            int chunk = Math.min(remaining, buffer.remaining());
+            buffer.limit(buffer.position() + chunk);
+            readFully(connection, buffer, false);
+            remaining -= chunk;
+            buffer.flip();
+            if (!result.isError()) {
+                result = utf8Decoder.decode(buffer, message, remaining == 0);
+                while (result.isOverflow()) {
+                    message = grow(message);
+                    result = utf8Decoder.decode(buffer, message, remaining == 0);
+                }
+            }
+            if (result.isError()) {
+                buffer.clear(); // Only the rest of the payload is still read, to stay in step with the client
+            } else {
+                buffer.compact(); // Keeps a multi-byte sequence cut off by the chunk
+            }
+        } while (remaining > 0);
+        if (result.isError() || utf8Decoder.flush(message).isError()) {
+            writeError(connection, "Compress payload is not valid UTF-8");
+            return;
+        }
+        message.flip();
+
+        long bitCount = model.estimateCompressedBits(message, 0, message.length());
+        if (bitCount < 0) {
+            writeError(connection, "Message contains characters outside of this Huffman model");
+            return;
+        }
+        buffer.clear();
+        buffer.put(STATUS_OK).putInt((int) ((bitCount + 7) / 8));
+        HuffmanEncoder encoder = model.newEncoder();
+        encoder.encode(message, buffer);
+        while (message.hasRemaining()) {
+            flushChunk(connection, buffer);
+            encoder.encode(message, buffer);
+        }
+        while (!encoder.finish(buffer)) {
+            flushChunk(connection, buffer);
+        }
+        buffer.flip();
+        writeFully(connection, buffer);
+    }
+
+    /**
+     * Decodes the compressed payload as it is read through buffer, then
+     * streams the UTF-8 response back through buffer.
+     */
+    private void decompress (SocketChannel connection, Huffman model, ByteBuffer buffer, int payloadLength,
+                             CharsetEncoder utf8Encoder) throws IOException {
+
+        StringBuilder message = new StringBuilder();
+        HuffmanDecoder decoder = model.newDecoder();
+        CharBuffer decoded = CharBuffer.allocate(DECODE_CHUNK_SIZE);
+        int remaining = payloadLength;
+        while (remaining > 0) {
+            buffer.clear().limit(Math.min(remaining, buffer.capacity()));
+            readFully(connection, buffer, false);
+            remaining -= buffer.limit();
+            buffer.flip();
+            while (buffer.hasRemaining() && !decoder.isFinished()) { // Bytes after the ETB code are ignored
+                decoder.decode(buffer, decoded);
+                decoded.flip();
+                message.append(decoded);
+                decoded.clear();
+            }
+        }
+        if (!decoder.isFinished()) {
+            writeError(connection, "Compressed message ends before its ETB code");
+            return;
+        }
+        if (RESPONSE_HEADER_SIZE + (long) message.length() * 3 > Integer.MAX_VALUE) {
+            writeError(connection, "Decompressed message is too large to send");
+            return;
+        }
+        int bodyLength = Huffman.utf8Length(message, 0, message.length());
+        if (bodyLength < 0) {
+            writeError(connection, "Decompressed message is not valid UTF-16");
+            return;
+        }
+
+        buffer.clear();
+        buffer.put(STATUS_OK).putInt(bodyLength);
+        CharBuffer text = CharBuffer.wrap(message);
+        utf8Encoder.reset();
+        while (utf8Encoder.encode(text, buffer, true).isOverflow()) {
+            flushChunk(connection, buffer);
+        }
+        while (utf8Encoder.flush(buffer).isOverflow()) {
+            flushChunk(connection, buffer);
+        }
+        buffer.flip();
+        writeFully(connection, buffer);
+    }
+
+    /**
+     * Reads and discards the next length bytes through buffer.
+     */
+    private static void skip (SocketChannel connection, ByteBuffer buffer, int length) throws IOException {
+
+        while (length > 0) {
+            buffer.clear().limit(Math.min(length, buffer.capacity()));
+            readFully(connection, buffer, false);
+            length -= buffer.limit();
+        }
+    }
+
+    /**
+     * Writes the bytes put into buffer so far and clears it for more.
+     */
+    private static void flushChunk (SocketChannel connection, ByteBuffer buffer) throws IOException {
+
+        buffer.flip();
+        writeFully(connection, buffer);
+        buffer.clear();
+    }
+
+    private static CharBuffer grow (CharBuffer chars) {
+
+        CharBuffer grown = CharBuffer.allocate(Math.max(16, chars.capacity() * 2));
+        chars.flip();
+        return grown.put(chars);
+    }
+
+    private static void writeError (SocketChannel connection, String message) throws IOException {
+
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer response = ByteBuffer.allocate(RESPONSE_HEADER_SIZE + body.length);
+        response.put(STATUS_ERROR).putInt(body.length).put(body).flip();
+        writeFully(connection, response);
+    }
+
+    /**
+     * Reads until buffer is full.
+     * @param atFrameStart If true, end of stream before any byte is a clean
+     *        disconnect rather than a truncated request.
+     * @return False on a clean disconnect.
+     */
+    static boolean readFully (SocketChannel channel, ByteBuffer buffer, boolean atFrameStart) throws IOException {
+
+        boolean empty = true;
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                if (atFrameStart && empty) {
+                    return false;
+                }
+                throw new ClosedChannelException();
+            }
+            empty = false;
+        }
+        return true;
+    }
+
+    static void writeFully (SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void closeQuietly (SocketChannel connection) {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    /**
+     * Command line entry point:
+     * {@code HuffmanServer <port> <name>=<modelFile>...} hosts every model
+     * file written by {@link Huffman#writeModel} under its name until killed.
+     */
+    public static void main (String[] args) throws IOException, InterruptedException {
+
+        if (args.length < 2) {
+            System.err.println("usage: HuffmanServer <port> <name>=<modelFile>...");
+            System.exit(2);
+        }
+        HuffmanServer server = new HuffmanServer(Integer.parseInt(args[0]));
+        for (int i = 1; i < args.length; i++) {
+            int split = args[i].indexOf('=');
+            try (InputStream in = Files.newInputStream(Paths.get(args[i].substring(split + 1)))) {
+                server.register(args[i].substring(0, split), Huffman.readModel(in));
+            }
+        }
+        System.out.println("HuffmanServer listening on 127.0.0.1:" + server.getPort());
+        server.acceptThread.join();
+    }
+
+}
@@ -0,0 +1,131 @@
+package main.huffman;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * HuffmanStringArray is an append-only list of Strings that are all
+ * compressed with one shared Huffman model into a single byte arena, so that
+ * millions of short Strings cost only their compressed bytes plus one int
+ * offset each. Elements are decoded on demand by get.
+ */
+public class HuffmanStringArray {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private final Huffman model;
+    private final boolean offHeap;
+    // Compressed elements, back to back; each one ends with its own ETB code
+    private ByteBuffer arena;
+    private int arenaSize;
+    // offsets[i] is where element i starts in the arena; offsets[size] == arenaSize
+    private int[] offsets;
+    private int size;
+
+    /**
+     * Creates an empty on-heap array compressing with the given model.
+     * @param model The shared Huffman model; every added String must be
+     *        encodable by it (see {@link HuffmanTrainer}).
+     */
+    public HuffmanStringArray (Huffman model) {
+        this(model, false, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty array compressing with the given model.
+     * @param model The shared Huffman model.
+     * @param offHeap If true, the arena is a direct ByteBuffer outside of the
+     *        Java heap, so it is neither scanned nor moved by the GC.
+     * @param initialCapacity Initial arena size in bytes.
+     */
+    public HuffmanStringArray (Huffman model, boolean offHeap, int initialCapacity) {
+
+        this.model = model;
+        this.offHeap = offHeap;
+        this.arena = allocate(Math.max(16, initialCapacity));
+        this.offsets = new int[16];
+    }
+
+    /**
+     * Compresses value and appends it to the end of the array.
+     * @param value The String to store.
+     * @return The index of the stored String.
+     * @throws IllegalArgumentException If value contains characters outside of the model.
+     */
+    public int add (String value) {
+
+        long bitCount = model.estimateCompressedBits(value);
+        if (bitCount < 0) {
+            throw new IllegalArgumentException("Value contains characters outside of the shared Huffman model");
+        }
+        int byteCount = (int) ((bitCount + 7) / 8);
+        ensureArenaCapacity(byteCount);
+        if (size + 2 > offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+
+        arenaSize += model.encodeInto(value, 0, value.length(), arena, arenaSize);
+        size++;
+        offsets[size] = arenaSize;
+        return size - 1;
+    }
+
+    /**
+     * Decodes and returns the String stored at the given index.
+     * @param index Index returned by add.
+     * @return The original String.
+     */
+    public String get (int index) {
+
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+        StringBuilder decoded = new StringBuilder();
+        model.decodeInto(arena, offsets[index], offsets[index + 1], decoded);
+        return decoded.toString();
+    }
+
+    /**
+     * @return The number of Strings stored.
+     */
+    public int size () {
+        return size;
+    }
+
+    /**
+     * @return The number of compressed bytes used in the arena, excluding the
+     *         offset index and unused capacity.
+     */
+    public int getArenaSize () {
+        return arenaSize;
+    }
+
+    /**
+     * @return True if the arena lives outside of the Java heap.
+     */
+    public boolean isOffHeap () {
+        return offHeap;
+    }
+
+    private void ensureArenaCapacity (int extraBytes) {
+
+        long required = (long) arenaSize + extraBytes;
+        if (required <= arena.capacity()) {
+            return;
+        }
+        if (required > Integer.MAX_VALUE) {
+            throw new IllegalStateException("HuffmanStringArray arena cannot exceed 2 GB");
+        }
+        int newCapacity = (int) Math.min(Integer.MAX_VALUE, Math.max(required, 2L * arena.capacity()));
+        ByteBuffer grown = allocate(newCapacity);
+        ByteBuffer used = arena.duplicate();
+        used.position(0).limit(arenaSize);
+        grown.put(used);
+        arena = grown;
+    }
+
+    private ByteBuffer allocate (int capacity) {
+        return offHeap ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+}
@@ -0,0 +1,227 @@
+package main.huffman;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * HuffmanTrainer aggregates character frequencies over many small sample
+ * messages into one shared Huffman model, since a model built from a single
+ * short message is useless for compressing the next one. Every holdoutEvery-th
+ * sample is kept out of training and used to report the expected compression
+ * ratio of the trained model.
+ */
+public class HuffmanTrainer {
+
+    // Characters that receive smoothing counts even if never seen in training,
+    // so a trained model can still encode common text it did not sample
+    private static final String SMOOTHED_CHARS;
+    static {
+        StringBuilder chars = new StringBuilder("\t\n\r");
+        for (char c = ' '; c <= '~'; c++) {
+            chars.append(c);
+        }
+        SMOOTHED_CHARS = chars.toString();
+    }
+
+    private final int smoothing;
+    private final int holdoutEvery;
+    // Aggregate counts indexed by character
+    private final long[] counts = new long[Character.MAX_VALUE + 1];
+    private final List<String> heldOut = new ArrayList<>();
+    private int samplesSeen;
+    private int samplesTrained;
+
+    /**
+     * Creates an empty trainer.
+     * @param smoothing Pseudo-count added to every observed character and to
+     *        every printable ASCII / whitespace character, so rare and unseen
+     *        symbols still get (long) codes. 0 disables smoothing.
+     * @param holdoutEvery Every holdoutEvery-th sample added is held out for
+     *        evaluation instead of training. 0 disables the held-out set.
+     */
+    public HuffmanTrainer (int smoothing, int holdoutEvery) {
+
+        if (smoothing < 0 || holdoutEvery < 0) {
+            throw new IllegalArgumentException("smoothing and holdoutEvery must not be negative");
+        }
+        this.smoothing = smoothing;
+        this.holdoutEvery = holdoutEvery;
+    }
+
+    /**
+     * Adds one sample message, either to the training counts or to the
+     * held-out set.
+     * @param sample The sample message.
+     */
+    public void addSample (String sample) {
+
+        samplesSeen++;
+        if (holdoutEvery > 0 && samplesSeen % holdoutEvery == 0) {
+            heldOut.add(sample);
+            return;
+        }
+        samplesTrained++;
+        for (int i = 0; i < sample.length(); i++) {
+            counts[sample.charAt(i)]++;
+        }
+    }
+
+    /**
+     * Adds every regular file in the given directory (not recursively) as a
+     * UTF-8 sample, in file name order so that the held-out split is
+     * reproducible.
+     * @param directory Directory of sample messages, one per file.
+     * @return The number of samples added.
+     * @throws IOException If the directory or one of its files cannot be read.
+     */
+    public int addSamples (Path directory) throws IOException {
+
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            addSample(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        }
+        return files.size();
+    }
+
+    /**
+     * Builds the shared model from the smoothed aggregate counts. Counts are
+     * scaled down proportionally (keeping every symbol at least 1) when their
+     * total would overflow the Huffman Trie's int counts.
+     * @return The trained Huffman model.
+     */
+    public Huffman train () {
+
+        long[] smoothed = counts.clone();
+        long total = 0;
+        for (int c = 0; c < smoothed.length; c++) {
+            if (smoothed[c] > 0) {
+                smoothed[c] += smoothing;
+            }
+        }
+        for (int i = 0; i < SMOOTHED_CHARS.length(); i++) {
+            char c = SMOOTHED_CHARS.charAt(i);
+            if (smoothed[c] == 0) {
+                smoothed[c] = smoothing;
+            }
+        }
+        for (long count : smoothed) {
+            total += count;
+        }
+
+        long scale = total / (Integer.MAX_VALUE / 2) + 1;
+        Map<Character, Integer> frequencies = new LinkedHashMap<>();
+        for (int c = 0; c < smoothed.length; c++) {
+            if (smoothed[c] > 0) {
+                frequencies.put((char) c, (int) Math.max(1, smoothed[c] / scale));
+            }
+        }
+        return new Huffman(frequencies);
+    }
+
+    /**
+     * Estimates how well the given model compresses the held-out samples,
+     * counting samples it cannot encode at their raw size, as the block mode
+     * would store them.
+     * @param model The model to evaluate, typically the result of train.
+     * @return The report over the held-out set.
+     */
+    public Report evaluate (Huffman model) {
+
+        Report report = new Report();
+        report.trainedSamples = samplesTrained;
+        for (String sample : heldOut) {
+            int rawBytes = sample.getBytes(StandardCharsets.UTF_8).length;
+            long bits = model.estimateCompressedBits(sample);
+            report.heldOutSamples++;
+            report.rawBytes += rawBytes;
+            if (bits < 0) {
+                report.unencodableSamples++;
+                report.compressedBytes += rawBytes;
+            } else {
+                report.compressedBytes += (bits + 7) / 8;
+            }
+        }
+        return report;
+    }
+
+    /**
+     * Summary of a model's performance on the held-out samples.
+     */
+    public static class Report {
+
+        int trainedSamples;
+        int heldOutSamples;
+        int unencodableSamples;
+        long rawBytes;
+        long compressedBytes;
+
+        public int getTrainedSamples () {
+            return trainedSamples;
+        }
+
+        public int getHeldOutSamples () {
+            return heldOutSamples;
+        }
+
+        public int getUnencodableSamples () {
+            return unencodableSamples;
+        }
+
+        public long getRawBytes () {
+            return rawBytes;
+        }
+
+        public long getCompressedBytes () {
+            return compressedBytes;
+        }
+
+        /**
+         * @return Compressed bytes over raw UTF-8 bytes of the held-out set
+         *         (lower is better), or 1.0 if nothing was held out.
+         */
+        public double getRatio () {
+            return rawBytes == 0 ? 1.0 : (double) compressedBytes / rawBytes;
+        }
+
+        @Override
+        public String toString () {
+            return String.format("trained on %d samples, held out %d (%d unencodable): %d -> %d bytes, ratio %.3f",
+                    trainedSamples, heldOutSamples, unencodableSamples, rawBytes, compressedBytes, getRatio());
+        }
+    }
+
+    /**
+     * Command line entry point:
+     * {@code HuffmanTrainer <sampleDir> <modelOut> [smoothing] [holdoutEvery]}
+     * trains a model on every file in sampleDir, writes it to modelOut and
+     * prints the held-out report.
+     */
+    public static void main (String[] args) throws IOException {
+
+        if (args.length < 2) {
+            System.err.println("usage: HuffmanTrainer <sampleDir> <modelOut> [smoothing] [holdoutEvery]");
+            System.exit(2);
+        }
+        int smoothing = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        int holdoutEvery = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+        HuffmanTrainer trainer = new HuffmanTrainer(smoothing, holdoutEvery);
+        trainer.addSamples(Paths.get(args[0]));
+        Huffman model = trainer.train();
+        try (OutputStream out = Files.newOutputStream(Paths.get(args[1]))) {
+            model.writeModel(out);
+        }
+        System.out.println(trainer.evaluate(model));
+    }
+
+}
@@ -0,0 +1,280 @@
+package main.huffman;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * RangeCoder is a static range (arithmetic) coder trained on the same
+ * character frequencies as {@link Huffman}, for distributions so skewed that
+ * whole-bit Huffman codes waste space: a character with probability 0.95
+ * costs at least 1 bit as a Huffman code, but about 0.07 bits here. Messages
+ * end with the same ETB symbol, so compress and decompress mirror Huffman's.
+ * Decoding costs a division and a table lookup per character instead of
+ * Huffman's table walk. Instances are immutable and thread-safe.
+ */
+public class RangeCoder {
+
+    // Frequencies are scaled to sum to exactly 2^precisionBits, never above this
+    private static final int MAX_PRECISION_BITS = 16;
+    // The range is renormalized (shifting out a byte) whenever it drops below 2^24
+    private static final long TOP = 1L << 24;
+    private static final long MASK_32 = 0xFFFFFFFFL;
+
+    private final int precisionBits;
+    // Symbols in model order, with their scaled frequencies and cumulative
+    // frequencies (the sum of the frequencies of all earlier symbols)
+    private final char[] symbols;
+    private final int[] freqs;
+    private final int[] cumFreqs;
+    // Index into symbols of every character, -1 when absent
+    private final int[] symbolIndex;
+    // Index into symbols owning every slot of [0, 2^precisionBits)
+    private final char[] slotSymbols;
+
+    /**
+     * Creates the coding model from the character distributions in the given
+     * text corpus, counted exactly as the Huffman constructor counts them.
+     * @param corpus A String representing a message / document corpus.
+     */
+    public RangeCoder (String corpus) {
+        this(HuffmanHistogram.frequencies(corpus));
+    }
+
+    /**
+     * Creates the coding model from already aggregated character frequencies,
+     * e.g. those produced by a {@link HuffmanTrainer}.
+     * @param frequencies Map of each character to its (positive) frequency.
+     */
+    public RangeCoder (Map<Character, Integer> frequencies) {
+
+        int count = frequencies.size() + (frequencies.containsKey(Huffman.ETB_CHAR) ? 0 : 1);
+        symbols = new char[count];
+        long[] rawFreqs = new long[count];
+        symbols[0] = Huffman.ETB_CHAR;
+        rawFreqs[0] = 1;
+        int next = 1;
+        for (Map.Entry<Character, Integer> entry : frequencies.entrySet()) {
+            if (entry.getValue() <= 0) {
+                throw new IllegalArgumentException("Frequency of character " + (int) entry.getKey() + " must be positive");
+            }
+            if (entry.getKey() == Huffman.ETB_CHAR) {
+                rawFreqs[0] += entry.getValue();
+            } else {
+                symbols[next] = entry.getKey();
+                rawFreqs[next++] = entry.getValue();
+            }
+        }
+
+        // Uses only as much precision as the corpus has counts, so small models keep small slot tables:
+        long total = 0;
+        for (long freq : rawFreqs) {
+            total += freq;
+        }
+        int bits = 64 - Long.numberOfLeadingZeros(total - 1);
+        int minBits = 32 - Integer.numberOfLeadingZeros(count - 1);
+        precisionBits = Math.min(MAX_PRECISION_BITS, Math.max(bits, minBits));
+        if (count > (1 << precisionBits)) {
+            throw new IllegalArgumentException("RangeCoder supports at most " + (1 << MAX_PRECISION_BITS) + " symbols");
+        }
+        freqs = scaleFrequencies(rawFreqs, total, 1 << precisionBits);
+
+        cumFreqs = new int[count];
+        slotSymbols = new char[1 << precisionBits];
+        int maxChar = 0;
+        for (int i = 0, cum = 0; i < count; i++) {
+            cumFreqs[i] = cum;
+            Arrays.fill(slotSymbols, cum, cum + freqs[i], (char) i);
+            cum += freqs[i];
+            maxChar = Math.max(maxChar, symbols[i]);
+        }
+        symbolIndex = new int[maxChar + 1];
+        Arrays.fill(symbolIndex, -1);
+        for (int i = 0; i < count; i++) {
+            symbolIndex[symbols[i]] = i;
+        }
+    }
+
+    /**
+     * Scales rawFreqs to sum to exactly target, keeping every frequency at
+     * least 1 and taking rounding error from (or giving it to) the largest.
+     */
+    private static int[] scaleFrequencies (long[] rawFreqs, long total, int target) {
+
+        int[] scaled = new int[rawFreqs.length];
+        long sum = 0;
+        for (int i = 0; i < rawFreqs.length; i++) {
+            scaled[i] = (int) Math.max(1, rawFreqs[i] * target / total);
+            sum += scaled[i];
+        }
+        while (sum != target) {
+            int largest = 0;
+            for (int i = 1; i < scaled.length; i++) {
+                if (scaled[i] > scaled[largest]) {
+                    largest = i;
+                }
+            }
+            // Moves at most what keeps the largest positive, so this loop ends after a few passes:
+            long adjust = sum > target ? -Math.min(sum - target, scaled[largest] - 1) : target - sum;
+            if (adjust == 0) {
+                throw new IllegalStateException("Too many symbols for " + target + " frequency slots");
+            }
+            scaled[largest] += adjust;
+            sum += adjust;
+        }
+        return scaled;
+    }
+
+    /**
+     * Compresses the given String message using the trained model.
+     * @param message String representing the corpus to compress.
+     * @return Range coded message followed by the coded ETB symbol.
+     * @throws IllegalArgumentException If message contains characters outside of the model.
+     */
+    public byte[] compress (String message) {
+
+        // Every symbol costs at most precisionBits bits, plus 4 bytes of flushed state:
+        Encoder encoder = new Encoder((int) Math.min(Integer.MAX_VALUE - 8,
+                ((long) message.length() + 1) * precisionBits / 8 + 8));
+        for (int i = 0; i < message.length(); i++) {
+            char currChar = message.charAt(i);
+            int index = currChar < symbolIndex.length ? symbolIndex[currChar] : -1;
+            if (index < 0) {
+                throw new IllegalArgumentException("Character " + (int) currChar + " is outside of this RangeCoder model");
+            }
+            encoder.encode(cumFreqs[index], freqs[index], precisionBits);
+        }
+        int etb = symbolIndex[Huffman.ETB_CHAR];
+        encoder.encode(cumFreqs[etb], freqs[etb], precisionBits);
+        return encoder.finish();
+    }
+
+    /**
+     * Decompresses a message produced by compress.
+     * @param compressedMsg Range coded message.
+     * @return Decompressed String message.
+     */
+    public String decompress (byte[] compressedMsg) {
+        return decompress(compressedMsg, 0, compressedMsg.length);
+    }
+
+    /**
+     * Decompresses the message stored in compressedMsg[offset, offset + length)
+     * without copying it.
+     * @param compressedMsg Array holding the compressed message.
+     * @param offset Index of the message's first byte.
+     * @param length Number of bytes the message spans.
+     * @return Decompressed String message.
+     * @throws IllegalArgumentException If the bytes do not end with a coded ETB symbol.
+     */
+    public String decompress (byte[] compressedMsg, int offset, int length) {
+
+        int limit = offset + length;
+        int index = offset;
+        long code = 0;
+        long range = MASK_32;
+        for (int i = 0; i < 4; i++) {
+            code = (code << 8) | (index < limit ? compressedMsg[index++] & 0xFF : 0);
+        }
+
+        StringBuilder decompressed = new StringBuilder();
+        int maxSlot = (1 << precisionBits) - 1;
+        while (true) {
+            long r = range >>> precisionBits;
+            int symbol = slotSymbols[(int) Math.min(maxSlot, code / r)];
+            code -= r * cumFreqs[symbol];
+            range = r * freqs[symbol];
+            while (range < TOP) {
+                if (index >= limit + 4) { // Reading past every byte the encoder could have flushed
+                    throw new IllegalArgumentException("Compressed message ends before its ETB symbol");
+                }
+                code = ((code << 8) | (index < limit ? compressedMsg[index] & 0xFF : 0)) & MASK_32;
+                index++;
+                range <<= 8;
+            }
+            if (symbols[symbol] == Huffman.ETB_CHAR) {
+                return decompressed.toString();
+            }
+            decompressed.append(symbols[symbol]);
+        }
+    }
+
+    /**
+     * @return The number of bits used for scaled frequencies; every symbol's
+     *         probability is a multiple of 2^-precisionBits.
+     */
+    public int getPrecisionBits () {
+        return precisionBits;
+    }
+
+    /**
+     * Carry-propagating range encoder writing into one growable array. Bytes
+     * equal to 0xFF are held back in cacheSize until a carry out of low is
+     * known not to ripple into them.
+     */
+    private static class Encoder {
+
+        private byte[] output;
+        private int size;
+        private long low;
+        private long range = MASK_32;
+        private int cache;
+        private long cacheSize = 1;
+        // The first byte shifted out is always the initial, empty cache
+        private boolean skipFirst = true;
+
+        Encoder (int capacity) {
+            output = new byte[Math.max(16, capacity)];
+        }
+
+        void encode (int cumFreq, int freq, int precisionBits) {
+
+            long r = range >>> precisionBits;
+            low += r * cumFreq;
+            range = r * freq;
+            while (range < TOP) {
+                range <<= 8;
+                shiftLow();
+            }
+        }
+
+        byte[] finish () {
+
+            for (int i = 0; i < 5; i++) {
+                shiftLow();
+            }
+            // Trailing zeros of the flushed state are implied, as the decoder reads 0 past the end
+            for (int trimmed = 0; trimmed < 4 && size > 0 && output[size - 1] == 0; trimmed++) {
+                size--;
+            }
+            return Arrays.copyOf(output, size);
+        }
+
+        private void shiftLow () {
+
+            if (low < 0xFF000000L || low > MASK_32) {
+                int carry = (int) (low >>> 32);
+                int pending = cache;
+                do {
+                    write(pending + carry);
+                    pending = 0xFF;
+                } while (--cacheSize != 0);
+                cache = (int) ((low >>> 24) & 0xFF);
+            }
+            cacheSize++;
+            low = (low & 0x00FFFFFFL) << 8;
+        }
+
+        private void write (int value) {
+
+            if (skipFirst) {
+                skipFirst = false;
+                return;
+            }
+            if (size == output.length) {
+                output = Arrays.copyOf(output, output.length * 2);
+            }
+            output[size++] = (byte) value;
+        }
+    }
+
+}
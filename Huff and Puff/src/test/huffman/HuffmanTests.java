@@ -9,6 +9,30 @@ import org.junit.rules.TestWatcher;
 import org.junit.rules.Timeout;
 import org.junit.runner.Description;
 import main.huffman.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.SubmissionPublisher;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
 public class HuffmanTests {
 
@@ -159,4 +183,820 @@ public class HuffmanTests {
         assertEquals("BABCBC", h.decompress(compressed));
     }
 
+
+    // Estimation Tests
+    // -----------------------------------------------
+    @Test
+    public void estimate_t0() {
+        Huffman h = new Huffman("ABBBCC");
+        // (100 = ETB, 101 = 'A', 0 = 'B', 11 = 'C')
+        assertEquals(13, h.estimateCompressedBits("ABBBCC"));
+        assertEquals(3, h.estimateCompressedBits(""));
+    }
+
+    @Test
+    public void estimate_t1() {
+        Huffman h = new Huffman("ABBBCC");
+        assertEquals(-1, h.estimateCompressedBits("ABD"));
+    }
+
+    @Test
+    public void estimate_t2() {
+        Huffman h = new Huffman("the quick brown fox jumps over the lazy dog");
+        String message = "a lazy brown dog";
+        long bits = h.estimateCompressedBits(message);
+        assertEquals((bits + 7) / 8, h.compress(message).length);
+        assertEquals(message, h.decompress(h.compress(message)));
+    }
+
+    @Test
+    public void estimate_t3() {
+        Huffman h = new Huffman("ABBBCC");
+        // Spans several estimation chunks, with the unknown character in the scalar tail
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 9001; i++) {
+            message.append("ABBBCC".charAt(i % 6));
+        }
+        assertEquals(1500 * 10 + 3 + 3, h.estimateCompressedBits(message.toString()));
+        message.append('D');
+        assertEquals(-1, h.estimateCompressedBits(message.toString()));
+        message.setCharAt(4097, '\u4e2d');
+        assertEquals(-1, h.estimateCompressedBits(message.toString()));
+    }
+
+    @Test
+    public void estimate_t4() {
+        // Counting large corpora must keep the first-appearance order of the legacy loops
+        StringBuilder corpus = new StringBuilder("ZYX");
+        Map<Character, Integer> frequencies = new LinkedHashMap<>();
+        frequencies.put('Z', 1);
+        frequencies.put('Y', 1);
+        frequencies.put('X', 1);
+        for (int i = 0; i < 20000; i++) {
+            char c = (char) ('A' + i % 7);
+            corpus.append(c);
+            frequencies.merge(c, 1, Integer::sum);
+        }
+        Huffman counted = new Huffman(corpus.toString());
+        Huffman given = new Huffman(frequencies);
+        assertEquals(given.getModelId(), counted.getModelId());
+        assertArrayEquals(given.compress("ZYXABCDEFG"), counted.compress("ZYXABCDEFG"));
+    }
+
+    @Test
+    public void estimate_t5() {
+        // Latin-1 text with a few wide characters, ending exactly on an encoding chunk boundary
+        StringBuilder corpus = new StringBuilder();
+        Map<Character, Integer> frequencies = new LinkedHashMap<>();
+        for (int i = 0; i < 2 * 4096; i++) {
+            char c = i % 1000 == 999 ? (char) ('\u4e00' + i % 3) : (char) ('a' + i % 5);
+            corpus.append(c);
+            frequencies.merge(c, 1, Integer::sum);
+        }
+        String message = corpus.toString();
+        Huffman counted = new Huffman(message);
+        assertEquals(new Huffman(frequencies).getModelId(), counted.getModelId());
+        byte[] compressed = counted.compress(message);
+        assertEquals((counted.estimateCompressedBits(message) + 7) / 8, compressed.length);
+        assertEquals(message, counted.decompress(compressed));
+    }
+
+
+    // Block Mode Tests
+    // -----------------------------------------------
+    @Test
+    public void blocks_t0() {
+        Huffman h = new Huffman("AAAAABBBBCCCDDE");
+        String message = "AAAAABBBBCCCDDEAAAAABBBBCCCDDE";
+        byte[] compressed = h.compressBlocks(message, 15);
+        // Both blocks are Huffman coded: 1 byte header + 5 bytes payload each
+        assertEquals(12, compressed.length);
+        assertEquals(message, h.decompressBlocks(compressed));
+    }
+
+    @Test
+    public void blocks_t1() {
+        Huffman h = new Huffman("AAAAABBBBCCCDDE");
+        // 'Z' is outside of the model, so the second block is stored raw
+        String message = "AAAAAZ";
+        byte[] compressed = h.compressBlocks(message, 5);
+        assertEquals(1, compressed[compressed.length - 2] & 1);
+        assertEquals(message, h.decompressBlocks(compressed));
+    }
+
+    @Test
+    public void blocks_t2() {
+        Huffman h = new Huffman("ABCDE");
+        // "E" alone compresses to 1 byte, the same as its raw size, so it is stored raw
+        byte[] compressed = {(byte) 0b00000011, (byte) 'E'};
+        assertArrayEquals(compressed, h.compressBlocks("E", 8));
+        assertEquals("E", h.decompressBlocks(compressed));
+        assertEquals("", h.decompressBlocks(h.compressBlocks("", 8)));
+    }
+
+    @Test
+    public void blocks_t3() {
+        Huffman h = new Huffman("AAB\uD800");
+        // A lone surrogate has no UTF-8 encoding, so the block is Huffman coded
+        // even though it would not be smaller than raw
+        String message = "\uD800";
+        byte[] compressed = h.compressBlocks(message, 8);
+        assertEquals(0, compressed[0] & 1);
+        assertEquals(message, h.decompressBlocks(compressed));
+        assertEquals("AB\uD800AZ", h.decompressFramed(h.compressFramed("AB\uD800AZ", 2)).getText());
+        try {
+            h.compressBlocks("\uD800Z", 8);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected: the block can be neither raw nor Huffman coded
+        }
+    }
+
+
+    // Framed Block Tests
+    // -----------------------------------------------
+    @Test
+    public void framed_t0() {
+        Huffman h = new Huffman("AAAAABBBBCCCDDE");
+        String message = "AAAAABBBBCCCDDEAAAAABBBBCCCDDEZZ";
+        byte[] framed = h.compressFramed(message, 15);
+        // 8 checksum bytes per block on top of the unframed blocks
+        assertEquals(h.compressBlocks(message, 15).length + 3 * 8, framed.length);
+        Huffman.FramedMessage decoded = h.decompressFramed(framed);
+        assertTrue(decoded.isIntact());
+        assertEquals(3, decoded.getBlockCount());
+        assertEquals(message, decoded.getText());
+        assertEquals(0, Huffman.verifyFramed(framed).length);
+    }
+
+    @Test
+    public void framed_t1() {
+        Huffman h = new Huffman("AAAAABBBBCCCDDE");
+        byte[] framed = h.compressFramed("AAAAABBBBCCCDDEEDDCCCBBBBAAAAAABCDE", 15);
+        // Block 0 is a 1 byte header, 8 checksum bytes and 5 payload bytes; damages block 1's payload
+        framed[14 + 1 + 8 + 2] ^= 0x10;
+        Huffman.FramedMessage decoded = h.decompressFramed(framed);
+        assertArrayEquals(new int[] {1}, decoded.getBadBlocks());
+        assertEquals("AAAAABBBBCCCDDEABCDE", decoded.getText());
+        assertArrayEquals(new int[] {1}, Huffman.verifyFramed(framed));
+    }
+
+    @Test
+    public void framed_t2() {
+        Huffman h = new Huffman("AAAAABBBBCCCDDE");
+        byte[] framed = h.compressFramed("AAAAABBBBCCCDDEEDDCCCBBBBAAAAA", 15);
+        byte[] truncated = Arrays.copyOf(framed, framed.length - 2);
+        Huffman.FramedMessage decoded = h.decompressFramed(truncated);
+        assertEquals("AAAAABBBBCCCDDE", decoded.getText());
+        assertArrayEquals(new int[] {1}, decoded.getBadBlocks());
+        // Intact bytes decoded with the wrong model fail the content checksum
+        Huffman other = new Huffman("EEEEEDDDDCCCBBA");
+        assertEquals(2, other.decompressFramed(framed).getBadBlocks().length);
+    }
+
+    @Test
+    public void framed_t3() {
+        Huffman h = new Huffman("the quick brown fox jumps over the lazy dog");
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            message.append(i % 3 == 0 ? "the lazy dog " : "jumps over the fox ");
+        }
+        byte[] framed = h.compressFramed(message.toString(), 1000);
+        for (int i = 100; i < framed.length; i += framed.length / 5) {
+            framed[i] ^= 0x01;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            Huffman.FramedMessage serial = h.decompressFramed(framed);
+            Huffman.FramedMessage parallel = h.decompressFramed(framed, pool);
+            assertEquals(5, serial.getBadBlocks().length);
+            assertArrayEquals(serial.getBadBlocks(), parallel.getBadBlocks());
+            assertEquals(serial.getText(), parallel.getText());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+
+    // Channel Tests
+    // -----------------------------------------------
+    @Test
+    public void channel_t0() throws IOException {
+        Huffman h = new Huffman("the quick brown fox jumps over the lazy dog");
+        String message = "a lazy brown dog";
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        long written = h.compress(Channels.newChannel(new ByteArrayInputStream(message.getBytes(StandardCharsets.UTF_8))),
+                Channels.newChannel(compressed));
+        assertEquals(compressed.size(), written);
+        assertArrayEquals(h.compress(message), compressed.toByteArray());
+
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        h.decompress(Channels.newChannel(new ByteArrayInputStream(compressed.toByteArray())), Channels.newChannel(decompressed));
+        assertEquals(message, new String(decompressed.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void channel_t1() throws IOException {
+        // Spans many pooled buffers, with multi-byte characters straddling their boundaries
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 60000; i++) {
+            text.append(i % 5 == 0 ? "\u00e9t\u00e9 " : i % 7 == 0 ? "\ud83d\ude00 " : "summer ");
+        }
+        String message = text.toString();
+        Huffman h = new Huffman(message);
+        Path dir = Files.createTempDirectory("huffman-channels");
+        Path source = Files.write(dir.resolve("source.txt"), message.getBytes(StandardCharsets.UTF_8));
+        Path compressed = dir.resolve("source.huff");
+        Path restored = dir.resolve("restored.txt");
+        try (FileChannel in = FileChannel.open(source);
+             FileChannel out = FileChannel.open(compressed, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            h.compress(in, out);
+        }
+        assertArrayEquals(h.compress(message), Files.readAllBytes(compressed));
+        try (FileChannel in = FileChannel.open(compressed);
+             FileChannel out = FileChannel.open(restored, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            assertEquals(Files.size(source), h.decompress(in, out));
+        }
+        assertEquals(message, new String(Files.readAllBytes(restored), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void channel_t2() {
+        Huffman h = new Huffman("AAAAABBBBCCCDDE");
+        byte[] truncated = Arrays.copyOf(h.compress("ABCDEABCDE"), 2);
+        try {
+            h.decompress(Channels.newChannel(new ByteArrayInputStream(truncated)), Channels.newChannel(new ByteArrayOutputStream()));
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            h.compress(Channels.newChannel(new ByteArrayInputStream(new byte[] {'A', (byte) 0xC3})),
+                    Channels.newChannel(new ByteArrayOutputStream()));
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // expected: malformed UTF-8
+        }
+    }
+
+
+    // Model Training Tests
+    // -----------------------------------------------
+    @Test
+    public void model_t0() throws IOException {
+        Huffman h = new Huffman("AAAAABBBBCCCDDE");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        h.writeModel(out);
+        Huffman h2 = Huffman.readModel(new ByteArrayInputStream(out.toByteArray()));
+        // (0100 = ETB, 11 = 'A', 10 = 'B', 00 = 'C', 011 = 'D', 0101 = 'E')
+        byte[] compressed = {(byte) 0b11111111, (byte) 0b11101010, (byte) 0b10000000, (byte) 0b01101101, (byte) 0b01010000};
+        assertArrayEquals(compressed, h2.compress("AAAAABBBBCCCDDE"));
+    }
+
+    @Test
+    public void trainer_t0() {
+        HuffmanTrainer trainer = new HuffmanTrainer(1, 3);
+        trainer.addSample("hello world");
+        trainer.addSample("hello there");
+        trainer.addSample("held out hello");
+        Huffman h = trainer.train();
+        // 'Z' was never sampled but is still encodable thanks to smoothing
+        assertEquals("hello Zed", h.decompress(h.compress("hello Zed")));
+        assertTrue(h.estimateCompressedBits("l") < h.estimateCompressedBits("Z"));
+        HuffmanTrainer.Report report = trainer.evaluate(h);
+        assertEquals(2, report.getTrainedSamples());
+        assertEquals(1, report.getHeldOutSamples());
+        assertEquals(14, report.getRawBytes());
+        assertTrue(report.getRatio() < 1.0);
+    }
+
+    @Test
+    public void trainer_t1() throws IOException {
+        Path dir = Files.createTempDirectory("huffman-samples");
+        Files.write(dir.resolve("a.txt"), "abcabc".getBytes(StandardCharsets.UTF_8));
+        Files.write(dir.resolve("b.txt"), "caab\u00e9".getBytes(StandardCharsets.UTF_8));
+        HuffmanTrainer trainer = new HuffmanTrainer(0, 0);
+        assertEquals(2, trainer.addSamples(dir));
+        Huffman h = trainer.train();
+        assertEquals("\u00e9abc", h.decompress(h.compress("\u00e9abc")));
+        assertEquals(-1, h.estimateCompressedBits("d"));
+    }
+
+
+    // String Array Tests
+    // -----------------------------------------------
+    @Test
+    public void stringArray_t0() {
+        Huffman h = new Huffman("AAAAABBBBCCCDDE");
+        HuffmanStringArray array = new HuffmanStringArray(h);
+        assertEquals(0, array.add("AAAAABBBBCCCDDE"));
+        assertEquals(1, array.add(""));
+        assertEquals(2, array.add("EDDCCCBBBBAAAAA"));
+        assertEquals(3, array.size());
+        assertEquals("EDDCCCBBBBAAAAA", array.get(2));
+        assertEquals("", array.get(1));
+        assertEquals("AAAAABBBBCCCDDE", array.get(0));
+        // Each message takes 5 bytes, the empty one takes 1 byte for its ETB code
+        assertEquals(11, array.getArenaSize());
+    }
+
+    @Test
+    public void stringArray_t1() {
+        Huffman h = new Huffman("the quick brown fox jumps over the lazy dog");
+        HuffmanStringArray array = new HuffmanStringArray(h, true, 1);
+        for (int i = 0; i < 1000; i++) {
+            array.add(i % 2 == 0 ? "the lazy dog" : "quick brown fox");
+        }
+        assertTrue(array.isOffHeap());
+        assertEquals("the lazy dog", array.get(998));
+        assertEquals("quick brown fox", array.get(999));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void stringArray_t2() {
+        new HuffmanStringArray(new Huffman("ABC")).add("ABD");
+    }
+
+
+    // Compressed Search Tests
+    // -----------------------------------------------
+    @Test
+    public void search_t0() {
+        Huffman h = new Huffman("ABBBCC");
+        byte[] compressed = h.compress("BABCBC");
+        assertEquals(0, h.indexOf(compressed, "BA"));
+        assertEquals(2, h.indexOf(compressed, "BCBC"));
+        assertEquals(-1, h.indexOf(compressed, "CC"));
+        assertEquals(0, h.indexOf(compressed, ""));
+        assertTrue(h.contains(compressed, "CBC"));
+        assertFalse(h.contains(compressed, "BCBCB"));
+    }
+
+    @Test
+    public void search_t1() {
+        Huffman h = new Huffman("the quick brown fox jumps over the lazy dog");
+        String message = "the lazy dog jumps over the lazy fox";
+        byte[] compressed = h.compress(message);
+        assertEquals(message.indexOf("the lazy f"), h.indexOf(compressed, "the lazy f"));
+        assertEquals(message.indexOf("over"), h.indexOf(compressed, "over"));
+        // 'Z' is outside of the model, so it cannot occur
+        assertFalse(h.contains(compressed, "laZy"));
+    }
+
+
+    // Batch Compression Tests
+    // -----------------------------------------------
+    @Test
+    public void batch_t0() {
+        Huffman h = new Huffman("ABBBCC");
+        Huffman.Batch batch = h.compressAll(Arrays.asList("ABBBCC", "", "BABCBC"));
+        // byte 0-1: "ABBBCC", byte 2: "" (ETB only), byte 3-4: "BABCBC"
+        byte[] data = {(byte) 0b10100011, (byte) 0b11100000, (byte) 0b10000000, (byte) 0b01010110, (byte) 0b11100000};
+        assertArrayEquals(data, batch.getData());
+        assertEquals(3, batch.size());
+        assertEquals(3, batch.getOffset(2));
+        assertEquals("BABCBC", h.decompress(batch.getData(), batch.getOffset(2), batch.getLength(2)));
+        assertArrayEquals(h.compress("ABBBCC"), batch.get(0));
+    }
+
+    @Test
+    public void batch_t1() {
+        Huffman h = new Huffman("ABBBCC");
+        String[] messages = {"ABBBCC", "BABCBC"};
+        ByteBuffer out = ByteBuffer.allocate(16);
+        out.put((byte) 42);
+        int[] offsets = new int[3];
+        assertEquals(4, h.compressAll(messages, out, offsets));
+        assertArrayEquals(new int[] {1, 3, 5}, offsets);
+        assertEquals(5, out.position());
+        assertEquals("BABCBC", h.decompress(out.array(), offsets[1], offsets[2] - offsets[1]));
+    }
+
+    @Test
+    public void batch_t2() throws InterruptedException {
+        Huffman h = new Huffman("the quick brown fox jumps over the lazy dog");
+        List<String> messages = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            messages.add(i % 3 == 0 ? "the lazy dog" : "quick brown fox " + (i % 10 == 0 ? "" : "jumps"));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        Huffman.Batch parallel = h.compressAll(messages, pool);
+        pool.shutdown();
+        assertArrayEquals(h.compressAll(messages).getData(), parallel.getData());
+        assertEquals(messages.get(4999), h.decompress(parallel.get(4999)));
+    }
+
+    @Test(expected = java.nio.BufferOverflowException.class)
+    public void batch_t3() {
+        Huffman h = new Huffman("ABBBCC");
+        h.compressAll(new String[] {"ABBBCC", "BABCBC"}, ByteBuffer.allocate(3), new int[3]);
+    }
+
+
+    // Flow Processor Tests
+    // -----------------------------------------------
+
+    /**
+     * Subscriber that records every chunk it receives, requesting the given
+     * number of chunks up front.
+     */
+    static class Collector<T> implements Flow.Subscriber<T> {
+        final List<T> received = new ArrayList<>();
+        final long initialRequest;
+        Flow.Subscription subscription;
+        boolean completed;
+        Throwable error;
+
+        Collector (long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        public void onSubscribe (Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(initialRequest);
+        }
+
+        public void onNext (T item) {
+            received.add(item);
+        }
+
+        public void onError (Throwable throwable) {
+            error = throwable;
+        }
+
+        public void onComplete () {
+            completed = true;
+        }
+    }
+
+    @Test
+    public void flow_t0() {
+        Huffman h = new Huffman("AAAAABBBBCCCDDE");
+        HuffmanCompressProcessor processor = new HuffmanCompressProcessor(h);
+        Collector<ByteBuffer> collector = new Collector<>(Long.MAX_VALUE);
+        processor.subscribe(collector);
+        // Synchronous publisher, so every chunk is processed on this thread
+        SubmissionPublisher<CharBuffer> publisher = new SubmissionPublisher<>(Runnable::run, 16);
+        publisher.subscribe(processor);
+        for (String chunk : new String[] {"AAA", "AABB", "B", "", "BCCCDDE"}) {
+            publisher.submit(CharBuffer.wrap(chunk));
+        }
+        publisher.close();
+
+        assertTrue(collector.completed);
+        ByteBuffer joined = ByteBuffer.allocate(16);
+        for (ByteBuffer chunk : collector.received) {
+            joined.put(chunk);
+        }
+        assertArrayEquals(h.compress("AAAAABBBBCCCDDE"), Arrays.copyOf(joined.array(), joined.position()));
+    }
+
+    @Test
+    public void flow_t1() {
+        Huffman h = new Huffman("AAAAABBBBCCCDDE");
+        byte[] compressed = h.compress("EDDCCCBBBBAAAAA");
+        HuffmanDecompressProcessor processor = new HuffmanDecompressProcessor(h);
+        Collector<CharBuffer> collector = new Collector<>(Long.MAX_VALUE);
+        processor.subscribe(collector);
+        SubmissionPublisher<ByteBuffer> publisher = new SubmissionPublisher<>(Runnable::run, 16);
+        publisher.subscribe(processor);
+        for (byte b : compressed) {
+            publisher.submit(ByteBuffer.wrap(new byte[] {b}));
+        }
+        publisher.close();
+
+        assertTrue(collector.completed);
+        StringBuilder joined = new StringBuilder();
+        for (CharBuffer chunk : collector.received) {
+            joined.append(chunk);
+        }
+        assertEquals("EDDCCCBBBBAAAAA", joined.toString());
+    }
+
+    @Test
+    public void flow_t2() {
+        Huffman h = new Huffman("AAAAABBBBCCCDDE");
+        HuffmanCompressProcessor processor = new HuffmanCompressProcessor(h);
+        Collector<ByteBuffer> collector = new Collector<>(1);
+        processor.subscribe(collector);
+        SubmissionPublisher<CharBuffer> publisher = new SubmissionPublisher<>(Runnable::run, 16);
+        publisher.subscribe(processor);
+        publisher.submit(CharBuffer.wrap("AAAAABBBB"));
+        publisher.submit(CharBuffer.wrap("CCCDDE"));
+        publisher.close();
+
+        // Only one chunk was requested, so the rest waits for more demand
+        assertEquals(1, collector.received.size());
+        assertFalse(collector.completed);
+        collector.subscription.request(5);
+        assertEquals(3, collector.received.size());
+        assertTrue(collector.completed);
+    }
+
+    @Test
+    public void flow_t3() {
+        HuffmanCompressProcessor processor = new HuffmanCompressProcessor(new Huffman("ABC"));
+        Collector<ByteBuffer> collector = new Collector<>(Long.MAX_VALUE);
+        processor.subscribe(collector);
+        SubmissionPublisher<CharBuffer> publisher = new SubmissionPublisher<>(Runnable::run, 16);
+        publisher.subscribe(processor);
+        publisher.submit(CharBuffer.wrap("ABD"));
+        assertTrue(collector.error instanceof IllegalArgumentException);
+    }
+
+    @Test
+    public void flow_t4() {
+        Huffman h = new Huffman("AAAAABBBBCCCDDE");
+        byte[] compressed = h.compress("EDDCCCBBBBAAAAA");
+        HuffmanDecompressProcessor processor = new HuffmanDecompressProcessor(h);
+        Collector<CharBuffer> collector = new Collector<>(Long.MAX_VALUE);
+        processor.subscribe(collector);
+        SubmissionPublisher<ByteBuffer> publisher = new SubmissionPublisher<>(Runnable::run, 16);
+        publisher.subscribe(processor);
+        // The stream is cut off before the byte holding the ETB code
+        publisher.submit(ByteBuffer.wrap(compressed, 0, compressed.length - 1));
+        publisher.close();
+
+        assertFalse(collector.completed);
+        assertTrue(collector.error instanceof java.io.UncheckedIOException);
+    }
+
+
+    // Metrics Tests
+    // -----------------------------------------------
+    @Test
+    public void metrics_t0() {
+        HuffmanMetrics metrics = HuffmanMetrics.global();
+        long builds = metrics.getCount(HuffmanMetrics.Operation.BUILD);
+        long compresses = metrics.getCount(HuffmanMetrics.Operation.COMPRESS);
+        long compressedBytes = metrics.getOutputSize(HuffmanMetrics.Operation.COMPRESS);
+        Huffman h = new Huffman("ABBBCC");
+        h.decompress(h.compress("ABBBCC"));
+        assertEquals(builds + 1, metrics.getCount(HuffmanMetrics.Operation.BUILD));
+        assertEquals(compresses + 1, metrics.getCount(HuffmanMetrics.Operation.COMPRESS));
+        assertEquals(compressedBytes + 2, metrics.getOutputSize(HuffmanMetrics.Operation.COMPRESS));
+        assertTrue(metrics.getLatencyPercentile(HuffmanMetrics.Operation.DECOMPRESS, 99) > 0);
+    }
+
+    @Test
+    public void metrics_t1() throws IOException {
+        HuffmanMetrics metrics = new HuffmanMetrics();
+        metrics.record(HuffmanMetrics.Operation.COMPRESS, 1000, 10, 4);
+        metrics.record(HuffmanMetrics.Operation.COMPRESS, 3000, 20, 6);
+        Map<String, Long> snapshot = metrics.snapshot();
+        assertEquals(Long.valueOf(2), snapshot.get("compress.count"));
+        assertEquals(Long.valueOf(10), snapshot.get("compress.output"));
+        // 3000 ns falls in the [2048, 4096) bucket
+        assertEquals(Long.valueOf(4096), snapshot.get("compress.p99.ns"));
+        Path file = Files.createTempDirectory("huffman-metrics").resolve("metrics.properties");
+        metrics.exportTo(file);
+        assertTrue(Files.readAllLines(file).contains("compress.input=30"));
+    }
+
+    @Test
+    public void metrics_t2() throws IOException {
+        Huffman h = new Huffman("ABBBCC");
+        Path file = Files.createTempFile("huffman", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("main.huffman.Compress");
+            recording.start();
+            h.compress("BABCBC");
+            recording.stop();
+            recording.dump(file);
+        }
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        assertEquals(1, events.size());
+        assertEquals(h.getModelId(), events.get(0).getLong("modelId"));
+        assertEquals(6, events.get(0).getLong("inputSize"));
+        assertEquals(2, events.get(0).getLong("outputSize"));
+        assertEquals("jdk.jfr.DataAmount", events.get(0).getEventType().getField("outputSize").getContentType());
+        assertNull(events.get(0).getEventType().getField("inputSize").getContentType());
+    }
+
+
+    // Blob Store Tests
+    // -----------------------------------------------
+    @Test
+    public void blobStore_t0() {
+        Huffman h = new Huffman("AAAAABBBBCCCDDE");
+        HuffmanBlobStore store = new HuffmanBlobStore(h, 8);
+        int first = store.put("AAAAABBBBCCCDDE");
+        int second = store.put("EDDCCCBBBBAAAAA");
+        // Each payload takes 5 of the segment's 8 bytes, so the second starts a new segment
+        assertEquals(2, store.getSegmentCount());
+        assertEquals("EDDCCCBBBBAAAAA", store.get(second));
+        StringBuilder out = new StringBuilder("> ");
+        store.get(first, out);
+        assertEquals("> AAAAABBBBCCCDDE", out.toString());
+    }
+
+    @Test
+    public void blobStore_t1() {
+        Huffman h = new Huffman("AAAAABBBBCCCDDE");
+        HuffmanBlobStore store = new HuffmanBlobStore(h, 1024);
+        int handle = store.put("ABCDE");
+        CharBuffer small = CharBuffer.allocate(3);
+        assertFalse(store.get(handle, small));
+        CharBuffer large = CharBuffer.allocate(16);
+        assertTrue(store.get(handle, large));
+        assertEquals("ABCDE", large.flip().toString());
+    }
+
+    @Test
+    public void blobStore_t2() throws IOException {
+        Huffman h = new Huffman("the quick brown fox jumps over the lazy dog");
+        Path file = Files.createTempDirectory("huffman-blobs").resolve("blobs.bin");
+        try (HuffmanBlobStore store = HuffmanBlobStore.mapped(h, file, 64)) {
+            for (int i = 0; i < 100; i++) {
+                assertEquals(i, store.put("the lazy dog " + (i % 2 == 0 ? "jumps" : "")));
+            }
+            assertEquals("the lazy dog ", store.get(99));
+            assertEquals("the lazy dog jumps", store.get(42));
+            assertTrue(store.getSegmentCount() > 1);
+        }
+        assertTrue(Files.size(file) > 64);
+    }
+
+
+    // Range Coder Tests
+    // -----------------------------------------------
+    @Test
+    public void rangeCoder_t0() {
+        RangeCoder rc = new RangeCoder("AAAAABBBBCCCDDE");
+        String message = "AAAAABBBBCCCDDEEEDCBA";
+        assertEquals(message, rc.decompress(rc.compress(message)));
+        assertEquals("", rc.decompress(rc.compress("")));
+    }
+
+    @Test
+    public void rangeCoder_t1() {
+        // 95% 'a': Huffman needs 1 bit per 'a', the range coder about 0.07
+        StringBuilder corpus = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            corpus.append(i % 20 == 0 ? 'b' : 'a');
+        }
+        String message = corpus.toString();
+        RangeCoder rc = new RangeCoder(message);
+        byte[] compressed = rc.compress(message);
+        assertEquals(message, rc.decompress(compressed));
+        assertTrue(compressed.length * 3 < new Huffman(message).compress(message).length);
+    }
+
+    @Test
+    public void rangeCoder_t2() {
+        RangeCoder rc = new RangeCoder("ABC");
+        try {
+            rc.compress("ABD");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        // Small corpora only need enough precision for their symbols
+        assertEquals(2, rc.getPrecisionBits());
+        byte[] compressed = rc.compress("CAB");
+        byte[] framed = new byte[compressed.length + 3];
+        Arrays.fill(framed, (byte) 9);
+        System.arraycopy(compressed, 0, framed, 2, compressed.length);
+        assertEquals("CAB", rc.decompress(framed, 2, compressed.length));
+    }
+
+
+    // Server Tests
+    // -----------------------------------------------
+    @Test
+    public void server_t0() throws IOException {
+        Huffman h = new Huffman("the quick brown fox jumps over the lazy dog");
+        try (HuffmanServer server = new HuffmanServer(0);
+             HuffmanClient client = new HuffmanClient(server.getPort())) {
+            server.register("english", h);
+            byte[] compressed = client.compress("english", "a lazy brown dog");
+            assertArrayEquals(h.compress("a lazy brown dog"), compressed);
+            assertEquals("a lazy brown dog", client.decompress("english", compressed));
+            assertEquals("", client.decompress("english", client.compress("english", "")));
+        }
+    }
+
+    @Test
+    public void server_t1() throws IOException {
+        Huffman h = new Huffman("AAAAABBBBCCCDDE");
+        try (HuffmanServer server = new HuffmanServer(0);
+             HuffmanClient client = new HuffmanClient(server.getPort())) {
+            server.register("abc", h);
+            try {
+                client.compress("missing", "ABC");
+                fail("Expected IOException");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("Unknown model"));
+            }
+            try {
+                client.compress("abc", "XYZ");
+                fail("Expected IOException");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("outside of this Huffman model"));
+            }
+            // Rejected requests leave the connection usable
+            assertEquals("EDCBA", client.decompress("abc", client.compress("abc", "EDCBA")));
+        }
+    }
+
+    @Test
+    public void server_t2() throws Exception {
+        Huffman h = new Huffman("the quick brown fox jumps over the lazy dog");
+        try (HuffmanServer server = new HuffmanServer(0)) {
+            server.register("english", h);
+            ExecutorService pool = Executors.newFixedThreadPool(8);
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                String message = "the fox " + "jumps ".repeat(i * 2000);
+                results.add(pool.submit(() -> {
+                    try (HuffmanClient client = new HuffmanClient(server.getPort())) {
+                        for (int j = 0; j < 20; j++) {
+                            if (!message.equals(client.decompress("english", client.compress("english", message)))) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void server_t3() throws IOException {
+        // Multi-byte UTF-8 text far larger than a pooled buffer, so requests and
+        // responses stream through it in chunks that split characters
+        String alphabet = "ab\u00e9\u4e2d";
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 300000; i++) {
+            message.append(alphabet.charAt(i * 7 % 11 % 4));
+        }
+        Huffman h = new Huffman(alphabet);
+        try (HuffmanServer server = new HuffmanServer(0);
+             HuffmanClient client = new HuffmanClient(server.getPort())) {
+            server.register("mixed", h);
+            byte[] compressed = client.compress("mixed", message.toString());
+            assertArrayEquals(h.compress(message.toString()), compressed);
+            assertEquals(message.toString(), client.decompress("mixed", compressed));
+            try {
+                client.decompress("missing", compressed);
+                fail("Expected IOException");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("Unknown model"));
+            }
+            try {
+                client.decompress("mixed", Arrays.copyOf(compressed, compressed.length / 2));
+                fail("Expected IOException");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("ends before its ETB code"));
+            }
+            // The skipped payloads leave the connection in step
+            assertEquals("a\u4e2d", client.decompress("mixed", client.compress("mixed", "a\u4e2d")));
+        }
+    }
+
+
+    // Linear Build Tests
+    // -----------------------------------------------
+    @Test
+    public void linear_t0() {
+        String corpus = "AAAAABBBBCCCDDE";
+        Huffman linear = Huffman.buildLinear(corpus);
+        // Codes differ from the legacy trie's, but are just as short overall
+        assertEquals(new Huffman(corpus).estimateCompressedBits(corpus), linear.estimateCompressedBits(corpus));
+        assertEquals(corpus, linear.decompress(linear.compress(corpus)));
+        assertEquals(6, linear.getSymbolCount());
+    }
+
+    @Test
+    public void linear_t1() throws IOException {
+        Huffman linear = Huffman.buildLinear("the quick brown fox jumps over the lazy dog");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        linear.writeModel(out);
+        Huffman restored = Huffman.readModel(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(linear.getModelId(), restored.getModelId());
+        assertArrayEquals(linear.compress("a lazy brown dog"), restored.compress("a lazy brown dog"));
+        assertNotEquals(new Huffman("the quick brown fox jumps over the lazy dog").getModelId(), linear.getModelId());
+    }
+
+    @Test
+    public void linear_t2() {
+        // Code-point sized alphabets
+        Map<Character, Integer> frequencies = new LinkedHashMap<>();
+        StringBuilder message = new StringBuilder();
+        for (char c = 0x4e00; c < 0x4e00 + 20000; c++) {
+            frequencies.put(c, 1 + (c * 31) % 997);
+            if (c % 7 == 0) {
+                message.append(c);
+            }
+        }
+        Huffman linear = Huffman.buildLinear(frequencies);
+        assertEquals(20001, linear.getSymbolCount());
+        assertEquals(message.toString(), linear.decompress(linear.compress(message.toString())));
+    }
+
 }
\ No newline at end of file
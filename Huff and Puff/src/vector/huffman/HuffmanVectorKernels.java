@@ -0,0 +1,124 @@
+package vector.huffman;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API versions of the HuffmanHistogram kernels. They need the
+ * incubating jdk.incubator.vector module, so this source root is compiled on
+ * its own and put on the classpath next to main. HuffmanHistogram looks the
+ * kernels up reflectively when run with {@code -Dmain.huffman.vector=true},
+ * and keeps to its scalar loops when this class is missing or the module is
+ * not resolved:
+ * <pre>
+ *   javac --add-modules jdk.incubator.vector -d out src/vector/huffman/*.java
+ *   java --add-modules jdk.incubator.vector -Dmain.huffman.vector=true -cp out:... ...
+ * </pre>
+ * Gathers and scatters take their indices from an int[], so every kernel
+ * first widens its chunk of characters into the caller's indices array.
+ */
+public final class HuffmanVectorKernels {
+
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+
+    /**
+     * The number of interleaved sub-histograms histogram counts into.
+     */
+    public static final int LANES = INTS.length();
+
+    private HuffmanVectorKernels () {
+    }
+
+    /**
+     * Counts chars[0, n), which must all be below 256, into LANES interleaved
+     * sub-histograms: counts[c * LANES + k] counts the c's that vector lane k
+     * saw. Each lane only touches its own sub-histogram, so the gather,
+     * increment and scatter of one vector never collide.
+     * @param indices Scratch space for n indices.
+     */
+    public static void histogram (char[] chars, int n, int[] counts, int[] indices) {
+
+        for (int i = 0; i < n; i++) {
+            indices[i] = chars[i] * LANES + (i & (LANES - 1));
+        }
+        int i = 0;
+        for (int bound = INTS.loopBound(n); i < bound; i += LANES) {
+            IntVector.fromArray(INTS, counts, 0, indices, i).add(1).intoArray(counts, 0, indices, i);
+        }
+        for (; i < n; i++) {
+            counts[indices[i]]++;
+        }
+    }
+
+    /**
+     * Sums the code lengths of chars[0, n).
+     * @param codeLengths Code length of every character, -1 when absent.
+     * @param indices Scratch space for n indices.
+     * @return The sum, or -1 if a character has no code.
+     */
+    public static long sumCodeLengths (char[] chars, int n, int[] codeLengths, int[] indices) {
+
+        if (widen(chars, n, indices) >= codeLengths.length) {
+            return -1;
+        }
+        IntVector sums = IntVector.zero(INTS);
+        IntVector missing = IntVector.zero(INTS);
+        int i = 0;
+        for (int bound = INTS.loopBound(n); i < bound; i += LANES) {
+            IntVector lengths = IntVector.fromArray(INTS, codeLengths, 0, indices, i);
+            sums = sums.add(lengths);
+            missing = missing.or(lengths); // Any -1 makes this negative
+        }
+        long sum = sums.reduceLanes(VectorOperators.ADD);
+        int anyMissing = missing.reduceLanes(VectorOperators.OR);
+        for (; i < n; i++) {
+            int length = codeLengths[indices[i]];
+            anyMissing |= length;
+            sum += length;
+        }
+        return anyMissing < 0 ? -1 : sum;
+    }
+
+    /**
+     * Looks up the codes of chars[0, n), every one of which must have a code,
+     * into lengths[0, n) and bits[0, n).
+     * @param indices Scratch space for n indices.
+     */
+    public static void gatherCodes (char[] chars, int n, int[] codeLengths, long[] codeBits,
+                                    int[] lengths, long[] bits, int[] indices) {
+
+        widen(chars, n, indices);
+        int i = 0;
+        for (int bound = INTS.loopBound(n); i < bound; i += LANES) {
+            IntVector.fromArray(INTS, codeLengths, 0, indices, i).intoArray(lengths, i);
+        }
+        for (; i < n; i++) {
+            lengths[i] = codeLengths[indices[i]];
+        }
+        i = 0;
+        for (int bound = LONGS.loopBound(n); i < bound; i += LONGS.length()) {
+            LongVector.fromArray(LONGS, codeBits, 0, indices, i).intoArray(bits, i);
+        }
+        for (; i < n; i++) {
+            bits[i] = codeBits[indices[i]];
+        }
+    }
+
+    /**
+     * Copies chars[0, n) into indices.
+     * @return The largest character, or 0 if n is 0.
+     */
+    private static int widen (char[] chars, int n, int[] indices) {
+
+        int max = 0;
+        for (int i = 0; i < n; i++) {
+            indices[i] = chars[i];
+            max = Math.max(max, chars[i]);
+        }
+        return max;
+    }
+
+}
@@ -0,0 +1,251 @@
+package main.spellex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A Burkhard-Keller tree over dictionary words, used by SpellEx to find the
+ * words closest to a query without comparing it against the whole dictionary.
+ * Every child hangs off its parent under their distance, so by the triangle
+ * inequality a subtree under edge e can only hold words within radius r of
+ * the query if |d(query, parent) - e| <= r.
+ * <p>
+ * SpellEx ranks by the optimal string alignment distance of editDistance,
+ * which breaks the triangle inequality ("ca" -> "ac" -> "abc" is 1 + 1, but
+ * "ca" -> "abc" is 3), so the tree is keyed on the true Damerau-Levenshtein
+ * distance instead: a metric that never exceeds the OSA distance, so every
+ * word within OSA distance r is among the words the tree finds within r.
+ * <p>
+ * One thread at a time may add words while others search. A search only
+ * sees the nodes added before it started: new nodes are appended to the end
+ * of their sibling list and only published once linked, so a search stops
+ * at the first child it does not know about, and the arrays it captured
+ * hold every node it does.
+ */
+final class BKTree {
+
+    // Node i holds words[i]; its children form a list starting at
+    // firstChild[i] and linked through nextSibling, with edges[c] holding
+    // child c's distance to its parent. -1 ends a list. The arrays are only
+    // replaced by larger copies, and published is the node count searches see.
+    private volatile String[] words = new String[16];
+    private volatile int[] firstChild = new int[16];
+    private volatile int[] nextSibling = new int[16];
+    private volatile int[] edges = new int[16];
+    private int size;
+    private volatile int published;
+
+    BKTree (Iterable<String> words) {
+        for (String word : words) {
+            add(word);
+        }
+    }
+
+    /**
+     * Adds word to the tree, unless it is already present.
+     */
+    void add (String word) {
+
+        if (size == words.length) {
+            int capacity = size * 2;
+            words = Arrays.copyOf(words, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+            edges = Arrays.copyOf(edges, capacity);
+        }
+        String[] words = this.words;
+        int[] firstChild = this.firstChild;
+        int[] nextSibling = this.nextSibling;
+        int[] edges = this.edges;
+        int node = size;
+        words[node] = word;
+        firstChild[node] = -1;
+        nextSibling[node] = -1;
+        if (size == 0) {
+            published = ++size;
+            return;
+        }
+
+        int parent = 0;
+        while (true) {
+            int distance = damerauLevenshtein(word, words[parent]);
+            if (distance == 0) {
+                return;
+            }
+            int lastChild = -1;
+            int child = firstChild[parent];
+            while (child >= 0 && edges[child] != distance) {
+                lastChild = child;
+                child = nextSibling[child];
+            }
+            if (child < 0) {
+                edges[node] = distance;
+                if (lastChild < 0) {
+                    firstChild[parent] = node;
+                } else {
+                    nextSibling[lastChild] = node;
+                }
+                published = ++size;
+                return;
+            }
+            parent = child;
+        }
+    }
+
+    /**
+     * @return The number of words in the tree.
+     */
+    int size () {
+        return published;
+    }
+
+    /**
+     * Starts a search around query whose radius can then be grown one step at
+     * a time, computing the distance to every visited word only once.
+     */
+    Search search (String query) {
+        return new Search(query);
+    }
+
+    /**
+     * An incremental search: expanding to radius r visits exactly the
+     * subtrees that radius r cannot rule out, picking up where the search of
+     * the previous radius stopped.
+     */
+    final class Search {
+
+        private final String query;
+        // The tree as it was when the search started
+        private final int limit;
+        private final String[] words;
+        private final int[] firstChild;
+        private final int[] nextSibling;
+        private final int[] edges;
+        // Children not yet visited, bucketed by the radius needed to reach them
+        private final List<int[]> pending = new ArrayList<>();
+        private int[] pendingSizes = new int[0];
+        // Visited words, bucketed by their distance to the query
+        private final List<List<String>> found = new ArrayList<>();
+        private int radius;
+
+        private Search (String query) {
+
+            this.query = query;
+            limit = published; // Read first, so the arrays read next hold all of its nodes
+            words = BKTree.this.words;
+            firstChild = BKTree.this.firstChild;
+            nextSibling = BKTree.this.nextSibling;
+            edges = BKTree.this.edges;
+            if (limit > 0) {
+                visit(0);
+            }
+        }
+
+        /**
+         * Expands the search to the given radius, which must grow by one on
+         * every call starting at 0.
+         * @return Every word at exactly the given Damerau-Levenshtein distance
+         *         from the query; together with the words returned by earlier
+         *         calls, every word within the radius.
+         */
+        List<String> expandTo (int radius) {
+
+            this.radius = radius;
+            while (radius < pendingSizes.length && pendingSizes[radius] > 0) {
+                visit(pending.get(radius)[--pendingSizes[radius]]);
+            }
+            return radius < found.size() ? found.get(radius) : new ArrayList<>();
+        }
+
+        private void visit (int node) {
+
+            int distance = damerauLevenshtein(query, words[node]);
+            while (found.size() <= distance) {
+                found.add(new ArrayList<>());
+            }
+            found.get(distance).add(words[node]);
+            for (int child = firstChild[node]; child >= 0 && child < limit; child = nextSibling[child]) {
+                // Children the current radius already reaches are visited in this expansion
+                int needed = Math.max(radius, Math.abs(distance - edges[child]));
+                if (needed >= pendingSizes.length) {
+                    pendingSizes = Arrays.copyOf(pendingSizes, needed + 1);
+                }
+                while (pending.size() <= needed) {
+                    pending.add(new int[4]);
+                }
+                int[] bucket = pending.get(needed);
+                if (pendingSizes[needed] == bucket.length) {
+                    bucket = Arrays.copyOf(bucket, bucket.length * 2);
+                    pending.set(needed, bucket);
+                }
+                bucket[pendingSizes[needed]++] = child;
+            }
+        }
+    }
+
+    // Scratch space of damerauLevenshtein: the DP table, and the last row in
+    // which each character of s0 appeared (all 0 between calls)
+    private static final ThreadLocal<int[]> TABLE = ThreadLocal.withInitial(() -> new int[256]);
+    private static final ThreadLocal<int[]> LAST_ROW = ThreadLocal.withInitial(() -> new int[Character.MAX_VALUE + 1]);
+
+    /**
+     * Returns the unrestricted Damerau-Levenshtein distance between s0 and
+     * s1 (Lowrance-Wagner): like editDistance, but a transposed pair may
+     * also be edited in between, so it is a metric and never exceeds
+     * editDistance.
+     */
+    static int damerauLevenshtein (String s0, String s1) {
+
+        if (s0.equals(s1)) {
+            return 0;
+        }
+        int rows = s0.length() + 2;
+        int cols = s1.length() + 2;
+        int[] table = TABLE.get();
+        if (table.length < rows * cols) {
+            table = new int[Math.max(rows * cols, table.length * 2)];
+            TABLE.set(table);
+        }
+        int[] lastRow = LAST_ROW.get();
+        int infinity = s0.length() + s1.length();
+
+        // table[i * cols + j] is the distance between the first i - 1 characters
+        // of s0 and the first j - 1 characters of s1, bordered by infinity
+        table[0] = infinity;
+        for (int i = 0; i <= s0.length(); i++) {
+            table[(i + 1) * cols] = infinity;
+            table[(i + 1) * cols + 1] = i;
+        }
+        for (int j = 0; j <= s1.length(); j++) {
+            table[j + 1] = infinity;
+            table[cols + j + 1] = j;
+        }
+        for (int i = 1; i <= s0.length(); i++) {
+            char c0 = s0.charAt(i - 1);
+            int lastMatchCol = 0;
+            for (int j = 1; j <= s1.length(); j++) {
+                char c1 = s1.charAt(j - 1);
+                int lastMatchRow = lastRow[c1];
+                int cost = 1;
+                if (c0 == c1) {
+                    cost = 0;
+                }
+                int best = Math.min(table[i * cols + j] + cost,
+                        Math.min(table[(i + 1) * cols + j] + 1, table[i * cols + j + 1] + 1));
+                best = Math.min(best, table[lastMatchRow * cols + lastMatchCol]
+                        + (i - lastMatchRow - 1) + 1 + (j - lastMatchCol - 1));
+                table[(i + 1) * cols + j + 1] = best;
+                if (cost == 0) {
+                    lastMatchCol = j;
+                }
+            }
+            lastRow[c0] = i;
+        }
+        for (int i = 0; i < s0.length(); i++) {
+            lastRow[s0.charAt(i)] = 0;
+        }
+        return table[(s0.length() + 1) * cols + s1.length() + 1];
+    }
+
+}
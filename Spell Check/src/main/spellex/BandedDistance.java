@@ -0,0 +1,82 @@
+package main.spellex;
+
+/**
+ * Threshold-bounded optimal string alignment distance for callers that only
+ * need to know whether two words are within k edits. Cells more than k off
+ * the diagonal can never lie on a path of cost k or less, so each row only
+ * computes the band of 2k + 1 cells around it, and the computation stops at
+ * the first row whose minimum exceeds k: every later row is at least as
+ * large (a transposition from two rows up still passes a cell of the row in
+ * between that is no larger than it).
+ */
+final class BandedDistance {
+
+    private static final ThreadLocal<int[][]> ROWS = ThreadLocal.withInitial(() -> new int[3][32]);
+
+    private BandedDistance () { }
+
+    /**
+     * Returns the distance between s0 and s1 if it is at most k, and
+     * SpellEx.EXCEEDS_LIMIT otherwise.
+     */
+    static int within (String s0, String s1, int k) {
+
+        int n = s0.length();
+        int m = s1.length();
+        if (k < 0 || Math.abs(n - m) > k) {
+            return SpellEx.EXCEEDS_LIMIT;
+        }
+        if (k >= Math.max(n, m)) { // The band is the whole table
+            return SpellEx.editDistance(s0, s1);
+        }
+
+        int[][] rows = ROWS.get();
+        if (rows[0].length < m + 2) {
+            int length = Math.max(m + 2, rows[0].length * 2);
+            rows = new int[][] { new int[length], new int[length], new int[length] };
+            ROWS.set(rows);
+        }
+        int[] twoUp = rows[0];
+        int[] up = rows[1];
+        int[] curr = rows[2];
+        int infinity = k + 1; // Anything over k is as good as infinite
+
+        // Row 0, with its first cell past the band marked infinite:
+        for (int j = 0; j <= Math.min(k, m); j++) {
+            up[j] = j;
+        }
+        if (k < m) {
+            up[k + 1] = infinity;
+        }
+
+        for (int i = 1; i <= n; i++) {
+            int lo = Math.max(1, i - k);
+            int hi = Math.min(m, i + k);
+            char c0 = s0.charAt(i - 1);
+            curr[lo - 1] = i <= k ? i : infinity;
+            int rowMin = curr[lo - 1];
+            for (int j = lo; j <= hi; j++) {
+                char c1 = s1.charAt(j - 1);
+                int best = up[j - 1] + (c0 == c1 ? 0 : 1);
+                best = Math.min(best, Math.min(up[j], curr[j - 1]) + 1);
+                if (i >= 2 && j >= 2 && c0 == s1.charAt(j - 2) && s0.charAt(i - 2) == c1) {
+                    best = Math.min(best, twoUp[j - 2] + 1);
+                }
+                curr[j] = best;
+                rowMin = Math.min(rowMin, best);
+            }
+            if (rowMin > k) {
+                return SpellEx.EXCEEDS_LIMIT;
+            }
+            if (hi < m) {
+                curr[hi + 1] = infinity;
+            }
+            int[] recycled = twoUp;
+            twoUp = up;
+            up = curr;
+            curr = recycled;
+        }
+        return up[m] <= k ? up[m] : SpellEx.EXCEEDS_LIMIT;
+    }
+
+}
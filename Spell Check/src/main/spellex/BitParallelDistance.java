@@ -0,0 +1,183 @@
+package main.spellex;
+
+import java.util.Arrays;
+
+/**
+ * Bit-parallel optimal string alignment distance: Hyyro's extension of
+ * Myers' bit-vector algorithm with transpositions. The shorter String is
+ * the pattern, and one column of the distance table is kept as vertical
+ * +1/-1 deltas packed one bit per pattern character, so each character of
+ * the other String costs a handful of word operations per 64 pattern
+ * characters instead of a row of table cells. Patterns up to 64 characters
+ * fit in a single long; longer ones are split into 64-bit blocks with the
+ * carries passed from each block to the next.
+ */
+final class BitParallelDistance {
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private BitParallelDistance () { }
+
+    /**
+     * Returns the same distance as the table based editDistance: the minimal
+     * number of insertions, deletions, replacements and adjacent
+     * transpositions, where no substring is edited more than once.
+     */
+    static int distance (String s0, String s1) {
+
+        if (s0.equals(s1)) {
+            return 0;
+        }
+        // The distance is symmetric, so the shorter String needs the fewest blocks
+        String pattern = s0.length() <= s1.length() ? s0 : s1;
+        String text = pattern == s0 ? s1 : s0;
+        if (pattern.isEmpty()) {
+            return text.length();
+        }
+
+        Scratch scratch = SCRATCH.get();
+        int blocks = (pattern.length() + 63) >>> 6;
+        scratch.prepare(pattern, blocks);
+        try {
+            if (blocks == 1) {
+                return singleBlock(pattern.length(), text, scratch);
+            }
+            return multiBlock(pattern.length(), blocks, text, scratch);
+        } finally {
+            scratch.clear(pattern, blocks);
+        }
+    }
+
+    private static int singleBlock (int m, String text, Scratch scratch) {
+
+        int[] slots = scratch.slots;
+        long[] peq = scratch.peq;
+        long high = 1L << (m - 1);
+        // Bit i of vp / vn: the cell in pattern row i + 1 is one more / one less than the one above it
+        long vp = -1L;
+        long vn = 0;
+        long d0 = 0;
+        long pmPrev = 0;
+        int score = m;
+        for (int j = 0; j < text.length(); j++) {
+            long pm = peq[slots[text.charAt(j)]];
+            long tr = ((~d0 & pm) << 1) & pmPrev;
+            d0 = (((pm & vp) + vp) ^ vp) | pm | vn | tr;
+            long hp = vn | ~(d0 | vp);
+            long hn = d0 & vp;
+            if ((hp & high) != 0) {
+                score++;
+            } else if ((hn & high) != 0) {
+                score--;
+            }
+            long x = (hp << 1) | 1; // Row 0 grows by one per text character
+            vn = x & d0;
+            vp = (hn << 1) | ~(x | d0);
+            pmPrev = pm;
+        }
+        return score;
+    }
+
+    private static int multiBlock (int m, int blocks, String text, Scratch scratch) {
+
+        int[] slots = scratch.slots;
+        long[] peq = scratch.peq;
+        long[] vp = scratch.vp;
+        long[] vn = scratch.vn;
+        long[] d0 = scratch.d0;
+        Arrays.fill(vp, 0, blocks, -1L);
+        Arrays.fill(vn, 0, blocks, 0);
+        Arrays.fill(d0, 0, blocks, 0);
+        int last = blocks - 1;
+        long high = 1L << ((m - 1) & 63);
+        int prevRow = 0;
+        int score = m;
+        for (int j = 0; j < text.length(); j++) {
+            int row = slots[text.charAt(j)] * blocks;
+            // Bits shifted or carried out of the top of one block into the bottom of the next
+            long addCarry = 0;
+            long trCarry = 0;
+            long hpCarry = 1;
+            long hnCarry = 0;
+            for (int b = 0; b < blocks; b++) {
+                long pm = peq[row + b];
+                long vpb = vp[b];
+                long vnb = vn[b];
+                long eq = ~d0[b] & pm;
+                long tr = ((eq << 1) | trCarry) & peq[prevRow + b];
+                trCarry = eq >>> 63;
+                long addend = pm & vpb;
+                long sum = addend + vpb + addCarry;
+                addCarry = ((addend & vpb) | ((addend | vpb) & ~sum)) >>> 63;
+                long d = (sum ^ vpb) | pm | vnb | tr;
+                long hp = vnb | ~(d | vpb);
+                long hn = d & vpb;
+                if (b == last) {
+                    if ((hp & high) != 0) {
+                        score++;
+                    } else if ((hn & high) != 0) {
+                        score--;
+                    }
+                }
+                long x = (hp << 1) | hpCarry;
+                hpCarry = hp >>> 63;
+                vn[b] = x & d;
+                vp[b] = (hn << 1) | hnCarry | ~(x | d);
+                hnCarry = hn >>> 63;
+                d0[b] = d;
+            }
+            prevRow = row;
+        }
+        return score;
+    }
+
+    /**
+     * Per thread match masks for the current pattern. Every distinct pattern
+     * character gets a slot from 1 up, and peq[slot * blocks + b] holds
+     * block b of its mask; slot 0 is the all-zero mask of characters that
+     * do not occur in the pattern.
+     */
+    private static final class Scratch {
+
+        final int[] slots = new int[Character.MAX_VALUE + 1];
+        long[] peq = new long[64];
+        long[] vp = new long[4];
+        long[] vn = new long[4];
+        long[] d0 = new long[4];
+
+        void prepare (String pattern, int blocks) {
+
+            int needed = (pattern.length() + 1) * blocks;
+            if (peq.length < needed) {
+                peq = new long[Math.max(needed, peq.length * 2)];
+            }
+            if (vp.length < blocks) {
+                vp = new long[blocks];
+                vn = new long[blocks];
+                d0 = new long[blocks];
+            }
+            int distinct = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                int slot = slots[c];
+                if (slot == 0) {
+                    slot = ++distinct;
+                    slots[c] = slot;
+                }
+                peq[slot * blocks + (i >>> 6)] |= 1L << i;
+            }
+        }
+
+        void clear (String pattern, int blocks) {
+
+            int distinct = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                distinct = Math.max(distinct, slots[c]);
+                slots[c] = 0;
+            }
+            Arrays.fill(peq, blocks, (distinct + 1) * blocks, 0);
+        }
+    }
+
+}
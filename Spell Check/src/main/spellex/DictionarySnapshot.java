@@ -0,0 +1,177 @@
+package main.spellex;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable view of a SpellEx dictionary. Changing a word produces a new
+ * snapshot that copies only the one of SEGMENTS hash segments holding it,
+ * so queries can keep reading the snapshot they started with, without
+ * locking, while words are added, removed or counted.
+ * <p>
+ * Every word ever added keeps the same id for the life of the dictionary,
+ * and removed words stay behind as entries that are no longer present.
+ * wordsById (and, for scans, the per-length buckets of ids) are therefore
+ * append-only and shared between snapshots: a new word is written past the
+ * end of the older snapshots' counts, where they never look.
+ */
+final class DictionarySnapshot {
+
+    private static final int SEGMENTS = 64;
+
+    private final Map<String, Entry>[] segments;
+    // The number of words present
+    private final int size;
+    // Every word ever added, by id: wordsById[0, wordCount)
+    final String[] wordsById;
+    final int wordCount;
+    // If bucketed, the ids of the words of length L are lengthBuckets[L][0, bucketSizes[L])
+    final int[][] lengthBuckets;
+    final int[] bucketSizes;
+
+    private DictionarySnapshot (Map<String, Entry>[] segments, int size, String[] wordsById, int wordCount,
+                                int[][] lengthBuckets, int[] bucketSizes) {
+
+        this.segments = segments;
+        this.size = size;
+        this.wordsById = wordsById;
+        this.wordCount = wordCount;
+        this.lengthBuckets = lengthBuckets;
+        this.bucketSizes = bucketSizes;
+    }
+
+    /**
+     * @param bucketed If true, also keeps the words' ids in buckets by length
+     *        for scanning
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"}) // Generic arrays can only be made raw
+    static DictionarySnapshot of (Map<String, Integer> words, boolean bucketed) {
+
+        Map<String, Entry>[] segments = new Map[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new HashMap<>();
+        }
+        DictionarySnapshot snapshot = new DictionarySnapshot(segments, 0, new String[Math.max(16, words.size())], 0,
+                bucketed ? new int[0][] : null, bucketed ? new int[0] : null);
+        for (Map.Entry<String, Integer> entry : words.entrySet()) {
+            snapshot = snapshot.appendInPlace(entry.getKey(), entry.getValue());
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return The frequency of word, or null if it is not in the dictionary
+     */
+    Integer frequency (String word) {
+
+        Entry entry = segments[segmentOf(word)].get(word);
+        return entry == null || !entry.present ? null : entry.frequency;
+    }
+
+    /**
+     * @return The number of words in the dictionary
+     */
+    int size () {
+        return size;
+    }
+
+    /**
+     * Returns a snapshot in which word has the given frequency, adding it if
+     * needed. Must only be called on the latest snapshot, by one thread at a
+     * time.
+     */
+    DictionarySnapshot with (String word, int frequency) {
+
+        int segment = segmentOf(word);
+        Entry entry = segments[segment].get(word);
+        if (entry == null) {
+            return append(word, frequency);
+        }
+        Map<String, Entry>[] changed = segments.clone();
+        changed[segment] = new HashMap<>(segments[segment]);
+        changed[segment].put(word, new Entry(entry.id, frequency, true));
+        return new DictionarySnapshot(changed, entry.present ? size : size + 1, wordsById, wordCount,
+                lengthBuckets, bucketSizes);
+    }
+
+    /**
+     * Returns a snapshot without word, or this one if it is not present. Must
+     * only be called on the latest snapshot, by one thread at a time.
+     */
+    DictionarySnapshot without (String word) {
+
+        int segment = segmentOf(word);
+        Entry entry = segments[segment].get(word);
+        if (entry == null || !entry.present) {
+            return this;
+        }
+        Map<String, Entry>[] changed = segments.clone();
+        changed[segment] = new HashMap<>(segments[segment]);
+        changed[segment].put(word, new Entry(entry.id, 0, false));
+        return new DictionarySnapshot(changed, size - 1, wordsById, wordCount, lengthBuckets, bucketSizes);
+    }
+
+    /**
+     * Adds a new word with the next id, copying its segment.
+     */
+    private DictionarySnapshot append (String word, int frequency) {
+
+        Map<String, Entry>[] changed = segments.clone();
+        int segment = segmentOf(word);
+        changed[segment] = new HashMap<>(segments[segment]);
+        return new DictionarySnapshot(changed, size, wordsById, wordCount, lengthBuckets, bucketSizes)
+                .appendInPlace(word, frequency);
+    }
+
+    /**
+     * Adds a new word with the next id to this snapshot's own segment, which
+     * no other snapshot may share, then appends it to the shared arrays.
+     */
+    private DictionarySnapshot appendInPlace (String word, int frequency) {
+
+        int id = wordCount;
+        segments[segmentOf(word)].put(word, new Entry(id, frequency, true));
+        String[] words = wordsById;
+        if (id == words.length) {
+            words = Arrays.copyOf(words, id * 2);
+        }
+        words[id] = word;
+        if (lengthBuckets == null) {
+            return new DictionarySnapshot(segments, size + 1, words, id + 1, null, null);
+        }
+
+        int length = word.length();
+        int[][] buckets = Arrays.copyOf(lengthBuckets, Math.max(lengthBuckets.length, length + 1));
+        int[] sizes = Arrays.copyOf(bucketSizes, buckets.length);
+        int[] bucket = buckets[length];
+        if (bucket == null) {
+            bucket = new int[4];
+        } else if (sizes[length] == bucket.length) {
+            bucket = Arrays.copyOf(bucket, bucket.length * 2);
+        }
+        bucket[sizes[length]++] = id;
+        buckets[length] = bucket;
+        return new DictionarySnapshot(segments, size + 1, words, id + 1, buckets, sizes);
+    }
+
+    private static int segmentOf (String word) {
+
+        int hash = word.hashCode();
+        return (hash ^ (hash >>> 16)) & (SEGMENTS - 1);
+    }
+
+    private static final class Entry {
+
+        final int id;
+        final int frequency;
+        final boolean present;
+
+        Entry (int id, int frequency, boolean present) {
+            this.id = id;
+            this.frequency = frequency;
+            this.present = present;
+        }
+    }
+
+}
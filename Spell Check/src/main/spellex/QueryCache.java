@@ -0,0 +1,323 @@
+package main.spellex;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded cache of SpellEx query results with W-TinyLFU eviction: new
+ * results enter a small LRU window, and a result leaving the window only
+ * displaces the least recently used result of the main segmented LRU if a
+ * count-min sketch of recent lookups says it is asked for more often. One
+ * burst of distinct misspellings therefore cannot flush the results that
+ * recur all day.
+ * <p>
+ * Lookups read a ConcurrentHashMap without locking. The eviction policy is
+ * updated under a lock that lookups only try for, skipping the update (and
+ * so one frequency count) when another thread holds it. Every result is
+ * stamped with the cache's version when its computation started, and
+ * invalidate bumps the version, so results computed from an older
+ * dictionary are never returned.
+ */
+final class QueryCache {
+
+    static final int LEAST_DISTANT = 0;
+    static final int BEST_UNDER_DISTANCE = 1;
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private final ConcurrentHashMap<Key, Node> data = new ConcurrentHashMap<>();
+    private final ReentrantLock policyLock = new ReentrantLock();
+    private final AtomicLong version = new AtomicLong();
+    private final FrequencySketch sketch;
+    // Sentinels of the circular LRU lists, most recent first, and their sizes
+    private final Node[] queues = { new Node(null, null), new Node(null, null), new Node(null, null) };
+    private final int[] sizes = new int[3];
+    private final int windowCapacity;
+    private final int protectedCapacity;
+    private final int mainCapacity;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param capacity The most results to keep, at least 1
+     */
+    QueryCache (int capacity) {
+
+        windowCapacity = Math.max(1, capacity / 100);
+        mainCapacity = Math.max(1, capacity - windowCapacity);
+        protectedCapacity = mainCapacity * 4 / 5;
+        sketch = new FrequencySketch(capacity);
+        for (Node sentinel : queues) {
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+        }
+    }
+
+    /**
+     * @return The version to pass to put for a result computed from now on
+     */
+    long getVersion () {
+        return version.get();
+    }
+
+    /**
+     * Makes every result cached so far stale, for when the dictionary changes.
+     */
+    void invalidate () {
+        version.incrementAndGet();
+    }
+
+    /**
+     * @return A copy of the cached result for key, or null if there is no
+     *         result computed from the current dictionary
+     */
+    Set<String> get (Key key) {
+
+        Node node = data.get(key);
+        Result result = node == null ? null : node.result;
+        if (result == null || result.version != version.get()) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        if (policyLock.tryLock()) {
+            try {
+                sketch.increment(key.hashCode());
+                if (node.queue >= 0) {
+                    onHit(node);
+                }
+            } finally {
+                policyLock.unlock();
+            }
+        }
+        return new HashSet<>(Arrays.asList(result.words));
+    }
+
+    /**
+     * Caches output as the result for key.
+     * @param startVersion getVersion as read before output was computed
+     */
+    void put (Key key, Set<String> output, long startVersion) {
+
+        Result result = new Result(output.toArray(new String[0]), startVersion);
+        policyLock.lock();
+        try {
+            sketch.increment(key.hashCode());
+            Node node = data.get(key);
+            if (node != null) {
+                node.result = result;
+                onHit(node);
+                return;
+            }
+            node = new Node(key, result);
+            data.put(key, node);
+            link(node, WINDOW);
+            if (sizes[WINDOW] > windowCapacity) {
+                admit(queues[WINDOW].prev);
+            }
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    SpellEx.CacheStats getStats () {
+
+        SpellEx.CacheStats stats = new SpellEx.CacheStats();
+        stats.hits = hits.sum();
+        stats.misses = misses.sum();
+        stats.evictions = evictions.sum();
+        stats.size = data.size();
+        return stats;
+    }
+
+    /**
+     * Moves the window's least recent result into the main space, if it
+     * is full evicting whichever of it and the main space's least recent
+     * result has been asked for less.
+     */
+    private void admit (Node candidate) {
+
+        unlink(candidate);
+        if (sizes[PROBATION] + sizes[PROTECTED] < mainCapacity) {
+            link(candidate, PROBATION);
+            return;
+        }
+        Node victim = sizes[PROBATION] > 0 ? queues[PROBATION].prev : queues[PROTECTED].prev;
+        if (sketch.frequency(candidate.key.hashCode()) > sketch.frequency(victim.key.hashCode())) {
+            unlink(victim);
+            evict(victim);
+            link(candidate, PROBATION);
+        } else {
+            evict(candidate);
+        }
+    }
+
+    private void onHit (Node node) {
+
+        int queue = node.queue;
+        unlink(node);
+        if (queue == PROBATION) {
+            link(node, PROTECTED);
+            if (sizes[PROTECTED] > protectedCapacity) {
+                Node demoted = queues[PROTECTED].prev;
+                unlink(demoted);
+                link(demoted, PROBATION);
+            }
+        } else {
+            link(node, queue);
+        }
+    }
+
+    private void evict (Node node) {
+        data.remove(node.key, node);
+        evictions.increment();
+    }
+
+    private void link (Node node, int queue) {
+
+        Node sentinel = queues[queue];
+        node.prev = sentinel;
+        node.next = sentinel.next;
+        sentinel.next.prev = node;
+        sentinel.next = node;
+        node.queue = queue;
+        sizes[queue]++;
+    }
+
+    private void unlink (Node node) {
+
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        sizes[node.queue]--;
+        node.queue = -1;
+    }
+
+    /**
+     * Identifies a query: which method was called, and with what arguments.
+     */
+    static final class Key {
+
+        private final int method;
+        private final String word;
+        private final int n;
+        private final int distMax;
+        private final int hash;
+
+        Key (int method, String word, int n, int distMax) {
+
+            this.method = method;
+            this.word = word;
+            this.n = n;
+            this.distMax = distMax;
+            hash = ((word.hashCode() * 31 + method) * 31 + n) * 31 + distMax;
+        }
+
+        @Override
+        public boolean equals (Object other) {
+
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return method == key.method && n == key.n && distMax == key.distMax && word.equals(key.word);
+        }
+
+        @Override
+        public int hashCode () {
+            return hash;
+        }
+    }
+
+    private static final class Result {
+
+        final String[] words;
+        final long version;
+
+        Result (String[] words, long version) {
+            this.words = words;
+            this.version = version;
+        }
+    }
+
+    private static final class Node {
+
+        final Key key;
+        volatile Result result;
+        // Guarded by policyLock; queue is -1 once evicted
+        Node prev;
+        Node next;
+        int queue = -1;
+
+        Node (Key key, Result result) {
+            this.key = key;
+            this.result = result;
+        }
+    }
+
+    /**
+     * A count-min sketch of 4-bit counters, four per key, packed sixteen to
+     * a long. Once it has counted ten times as many lookups as the cache
+     * holds, every counter is halved so that old popularity fades.
+     */
+    private static final class FrequencySketch {
+
+        private static final long HALF_MASK = 0x7777777777777777L;
+        private static final int[] SEEDS = { 0x97CB3127, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F };
+
+        private final long[] table;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch (int capacity) {
+
+            int longs = Integer.highestOneBit(Math.max(4, capacity - 1) << 1);
+            table = new long[longs];
+            sampleSize = 10 * Math.max(1, capacity);
+        }
+
+        int frequency (int hash) {
+
+            int frequency = 15;
+            for (int i = 0; i < SEEDS.length; i++) {
+                int counter = counterOf(hash, i);
+                frequency = Math.min(frequency, (int) (table[counter >>> 4] >>> ((counter & 15) << 2)) & 15);
+            }
+            return frequency;
+        }
+
+        void increment (int hash) {
+
+            boolean added = false;
+            for (int i = 0; i < SEEDS.length; i++) {
+                int counter = counterOf(hash, i);
+                int shift = (counter & 15) << 2;
+                if (((table[counter >>> 4] >>> shift) & 15) < 15) {
+                    table[counter >>> 4] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & HALF_MASK;
+                }
+                additions /= 2;
+            }
+        }
+
+        private int counterOf (int hash, int i) {
+
+            int mixed = (hash + SEEDS[i]) * SEEDS[(i + 1) & 3];
+            mixed ^= mixed >>> 16;
+            return mixed & (table.length * 16 - 1);
+        }
+    }
+
+}
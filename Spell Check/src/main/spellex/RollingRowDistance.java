@@ -0,0 +1,64 @@
+package main.spellex;
+
+/**
+ * The table based optimal string alignment distance of editDistance, keeping
+ * only the three rows a cell can depend on (its own, the one above, and the
+ * one two up for transpositions) in per-thread int arrays that are reused
+ * from call to call, and comparing chars directly. Once a thread's rows are
+ * long enough, a comparison allocates nothing.
+ */
+final class RollingRowDistance {
+
+    private static final ThreadLocal<int[][]> ROWS = ThreadLocal.withInitial(() -> new int[3][32]);
+
+    private RollingRowDistance () { }
+
+    static int distance (String s0, String s1) {
+
+        if (s0.equals(s1)) {
+            return 0;
+        }
+        // Rows run along the shorter String so they stay short
+        if (s1.length() > s0.length()) {
+            String longer = s1;
+            s1 = s0;
+            s0 = longer;
+        }
+        int n = s0.length();
+        int m = s1.length();
+
+        int[][] rows = ROWS.get();
+        if (rows[0].length < m + 1) {
+            int length = Math.max(m + 1, rows[0].length * 2);
+            rows = new int[][] { new int[length], new int[length], new int[length] };
+            ROWS.set(rows);
+        }
+        int[] twoUp = rows[0];
+        int[] up = rows[1];
+        int[] curr = rows[2];
+
+        for (int j = 0; j <= m; j++) {
+            up[j] = j;
+        }
+        for (int i = 1; i <= n; i++) {
+            char c0 = s0.charAt(i - 1);
+            char prev0 = i >= 2 ? s0.charAt(i - 2) : 0;
+            curr[0] = i;
+            for (int j = 1; j <= m; j++) {
+                char c1 = s1.charAt(j - 1);
+                int best = up[j - 1] + (c0 == c1 ? 0 : 1);
+                best = Math.min(best, Math.min(up[j], curr[j - 1]) + 1);
+                if (i >= 2 && j >= 2 && c0 == s1.charAt(j - 2) && prev0 == c1) {
+                    best = Math.min(best, twoUp[j - 2] + 1);
+                }
+                curr[j] = best;
+            }
+            int[] recycled = twoUp;
+            twoUp = up;
+            up = curr;
+            curr = recycled;
+        }
+        return up[m];
+    }
+
+}
@@ -2,15 +2,39 @@
 package main.spellex;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 public class SpellEx {
 
 
 
-    // Note: Not quite as space-conscious as a Bloom Filter,
-    // nor a Trie, but since those aren't in the JCF, this map 
-    // will get the job done for simplicity of the assignment
-    private Map<String, Integer> dict;
+    // The current dictionary; each query reads it once and uses that snapshot
+    // throughout, while changes publish a new one (under this SpellEx's lock)
+    private volatile DictionarySnapshot dict;
+
+    // Index of the dictionary's words for getNLeastDistant, built on its first
+    // call and then grown with every word added to the dictionary
+    private volatile BKTree bkTree;
+    // Index for getNBestUnderDistance, built on its first call and rebuilt
+    // whenever a query asks for a larger distMax than it covers, or too many
+    // words have been added since it was built
+    private volatile SymSpellIndex symSpellIndex;
+    // False if queries scan the whole dictionary (in buckets by word length)
+    // instead of building the indexes
+    private final boolean indexed;
+    // True if scans are split across the common ForkJoinPool
+    private final boolean parallel;
+    // Scans of more words than this are split into ForkJoin tasks
+    private static final int SCAN_TASK_SIZE = 8192;
+    // The symmetric delete index is rebuilt once more words than this (or a
+    // quarter of the words it holds) have been added since it was built
+    private static final int UNINDEXED_WORDS_MIN = 1024;
+    // Recent query results, or null if caching is disabled
+    private static final int DEFAULT_CACHE_SIZE = 1024;
+    private volatile QueryCache queryCache = new QueryCache(DEFAULT_CACHE_SIZE);
 
 
     
@@ -26,7 +50,112 @@ public class SpellEx {
      * @param words The map of words to their frequencies
      */
     public SpellEx(Map<String, Integer> words) {
-        dict = new HashMap<>(words);
+        this(words, true);
+    }
+
+    /**
+     * Constructs a new SpellEx spelling corrector, as above, choosing how
+     * its queries find their suggestions
+     * @param words The map of words to their frequencies
+     * @param indexed If true, queries use indexes built over the dictionary
+     * on first use, and each query collects every word within its distance
+     * limit from the BK-tree before picking the best; if false, every query
+     * scans the whole dictionary, which needs no index memory or build time,
+     * keeping only the n best words so far in a bounded heap (O(n) memory per
+     * query), but is slower on large dictionaries
+     */
+    public SpellEx(Map<String, Integer> words, boolean indexed) {
+        this(words, indexed, false);
+    }
+
+    /**
+     * Constructs a new SpellEx spelling corrector, as above, that can also
+     * spread each scanning query over all cores
+     * @param words The map of words to their frequencies
+     * @param indexed If true, queries use indexes built over the dictionary
+     * @param parallel If true, and not indexed, each query splits its scan
+     * into contiguous ranges of the dictionary run on the common ForkJoinPool
+     */
+    public SpellEx(Map<String, Integer> words, boolean indexed, boolean parallel) {
+
+        dict = DictionarySnapshot.of(words, !indexed);
+        this.indexed = indexed;
+        this.parallel = parallel;
+    }
+
+    /**
+     * Adds word to the dictionary with the given frequency, or sets its
+     * frequency if it is already there. Queries running meanwhile see the
+     * dictionary either with or without the change, never in between.
+     * @param word The word to add
+     * @param frequency Its count in the corpus
+     */
+    public synchronized void addWord (String word, int frequency) {
+        update(dict.with(word, frequency), word);
+    }
+
+    /**
+     * Removes word from the dictionary, so it is no longer suggested.
+     * @param word The word to remove
+     * @return False if word was not in the dictionary
+     */
+    public synchronized boolean removeWord (String word) {
+
+        DictionarySnapshot current = dict;
+        DictionarySnapshot changed = current.without(word);
+        if (changed == current) {
+            return false;
+        }
+        update(changed, word);
+        return true;
+    }
+
+    /**
+     * Adds amount to word's frequency, adding word with frequency amount if
+     * it is not in the dictionary yet (saturating at Integer.MAX_VALUE).
+     * @param word The word seen in the corpus
+     * @param amount The number of times it was seen
+     * @return The word's new frequency
+     * @throws IllegalArgumentException If amount is negative, since counts
+     *         seen in a corpus only grow
+     */
+    public synchronized int incrementFrequency (String word, int amount) {
+
+        if (amount < 0) {
+            throw new IllegalArgumentException("amount must not be negative");
+        }
+        Integer frequency = dict.frequency(word);
+        long incremented = (frequency == null ? 0L : frequency) + amount;
+        int updated = (int) Math.min(Integer.MAX_VALUE, incremented);
+        update(dict.with(word, updated), word);
+        return updated;
+    }
+
+    /**
+     * @return The number of words in the dictionary
+     */
+    public int size () {
+        return dict.size();
+    }
+
+    /**
+     * Publishes a changed dictionary. The indexes only ever grow: new words
+     * are added to the BK-tree before the snapshot holding them is published
+     * (words added after a query's snapshot are ignored by its verification),
+     * while the symmetric delete index leaves them to be checked directly
+     * until it is next rebuilt.
+     */
+    private void update (DictionarySnapshot changed, String word) {
+
+        BKTree tree = bkTree;
+        if (tree != null && changed.wordCount > dict.wordCount) {
+            tree.add(word);
+        }
+        dict = changed;
+        QueryCache cache = queryCache;
+        if (cache != null) {
+            cache.invalidate();
+        }
     }
     
     /**
@@ -40,6 +169,67 @@ public class SpellEx {
      */
     public static int editDistance (String s0, String s1) {
 
+        switch (distanceEngine) {
+            case BIT_PARALLEL:
+                return BitParallelDistance.distance(s0, s1);
+            case ROLLING_ROWS:
+                return RollingRowDistance.distance(s0, s1);
+            default:
+                return tableDistance(s0, s1);
+        }
+    }
+
+    /**
+     * Returned by editDistanceWithin when two Strings are further apart than its limit
+     */
+    public static final int EXCEEDS_LIMIT = Integer.MAX_VALUE;
+
+    /**
+     * Returns the edit distance between s0 and s1 (as editDistance) if it is
+     * at most k, without finishing the computation otherwise: only the band
+     * of the table within k of its diagonal is computed, and it is abandoned
+     * as soon as a whole row exceeds k.
+     * @param s0 A "start" String
+     * @param s1 A "destination" String
+     * @param k The largest distance of interest
+     * @return The edit distance between s0 and s1, or EXCEEDS_LIMIT if it is over k
+     */
+    public static int editDistanceWithin (String s0, String s1, int k) {
+        return BandedDistance.within(s0, s1, k);
+    }
+
+    /**
+     * The ways editDistance can compute its distance; both give identical results
+     */
+    public enum DistanceEngine {
+        /** The full dynamic programming table, one cell per pair of characters */
+        TABLE,
+        /** The same table, three reused rows at a time, without allocating */
+        ROLLING_ROWS,
+        /** Hyyro's bit-vector algorithm, 64 table cells per word operation */
+        BIT_PARALLEL
+    }
+
+    private static volatile DistanceEngine distanceEngine = DistanceEngine.BIT_PARALLEL;
+
+    /**
+     * Selects how editDistance (and so every query of every SpellEx) computes
+     * its distances.
+     * @param engine The engine to use from now on
+     */
+    public static void setDistanceEngine (DistanceEngine engine) {
+        distanceEngine = Objects.requireNonNull(engine);
+    }
+
+    /**
+     * @return The engine editDistance currently uses
+     */
+    public static DistanceEngine getDistanceEngine () {
+        return distanceEngine;
+    }
+
+    private static int tableDistance (String s0, String s1) {
+
         int minEditDistance;
         if (s0.equals(s1)) {
             minEditDistance = 0;
@@ -128,31 +318,204 @@ public class SpellEx {
      * @return A set of up to n suggestions closest to the given word
      */
     public Set<String> getNLeastDistant (String word, int n) {
+        return cached(QueryCache.LEAST_DISTANT, word, n, 0, () -> computeNLeastDistant(word, n));
+    }
 
-        PriorityQueue<givenWordTieBreaker> wordPriorityQueue = new PriorityQueue<>();
-        Map<String, Integer> editDistMap = new HashMap<>(); // INITIALIZES Map <"Dictionary word", EditDistance to given word>:
+    private Set<String> computeNLeastDistant (String word, int n) {
 
-        // CREATES Map <"Word", EditDistance>:
-        for (Map.Entry<String, Integer> entry : dict.entrySet()) {
-            int currEditDist = editDistance(word, entry.getKey());
-            editDistMap.put(entry.getKey(), currEditDist);
+        DictionarySnapshot dict = this.dict;
+        Set<String> output = new HashSet<>();
+        int wanted = Math.min(n, dict.size());
+        if (wanted <= 0) {
+            return output;
         }
-
-        for (Map.Entry<String, Integer> entry : dict.entrySet()) {
-            givenWordTieBreaker curr = new givenWordTieBreaker(entry.getKey(), editDistMap.get(entry.getKey()), entry.getValue());
-            wordPriorityQueue.add(curr);
+        if (!indexed) {
+            return scanNLeastDistant(dict, word, wanted);
         }
 
-        Set<String> output = new HashSet<>();
-        for (int i = 0; i < n; i++) {
-            givenWordTieBreaker curr = wordPriorityQueue.poll();
-            if ( !(curr == null) ) {
-                output.add(curr.givenWord);
+        // Grows the search radius until at least n words are within it; every word
+        // outside of it is then further away than all of them, so the n best are inside:
+        BKTree.Search search = bkTree().search(word);
+        List<givenWordTieBreaker> matches = new ArrayList<>();
+        List<List<givenWordTieBreaker>> byEditDist = new ArrayList<>(); // Candidates waiting for the radius to reach their edit distance
+        int found = 0;
+        int cutoff = EXCEEDS_LIMIT; // Once n candidates are within cutoff, no further one can be among the n best
+        for (int radius = 0; matches.size() < wanted; radius++) {
+            for (String candidate : search.expandTo(radius)) {
+                Integer frequency = dict.frequency(candidate); // Null if removed, or added after this snapshot
+                int currEditDist = frequency == null ? EXCEEDS_LIMIT : editDistanceWithin(word, candidate, cutoff);
+                if (currEditDist == EXCEEDS_LIMIT) {
+                    continue;
+                }
+                while (byEditDist.size() <= currEditDist) {
+                    byEditDist.add(new ArrayList<>());
+                }
+                byEditDist.get(currEditDist).add(new givenWordTieBreaker(candidate, currEditDist, frequency));
+                if (++found >= wanted) {
+                    int within = 0;
+                    for (cutoff = 0; within + byEditDist.get(cutoff).size() < wanted; cutoff++) {
+                        within += byEditDist.get(cutoff).size();
+                    }
+                }
+            }
+            if (radius < byEditDist.size()) {
+                matches.addAll(byEditDist.get(radius));
             }
         }
 
+        Collections.sort(matches);
+        for (int i = 0; i < wanted; i++) {
+            output.add(matches.get(i).givenWord);
+        }
         return output;
     }
+
+    /**
+     * Compares word against every dictionary word, keeping the n best in a
+     * bounded heap; once it is full, its worst distance bounds the rest.
+     */
+    private Set<String> scanNLeastDistant (DictionarySnapshot dict, String word, int n) {
+        return scan(dict, word, n, -1).toSet();
+    }
+
+    /**
+     * Scans the dictionary's length buckets in order of their length's
+     * difference from word's, which no word in them can be closer than, so
+     * the scan stops at the first difference past the cutoff (or distMax).
+     * Large buckets are scanned in parallel if enabled.
+     * @param distMax The distance words must be within, ranked by frequency
+     * alone; or -1 to rank every word by its distance first
+     */
+    private TopN scan (DictionarySnapshot dict, String word, int n, int distMax) {
+
+        TopN best = new TopN(n, dict.wordsById);
+        AtomicInteger cutoff = new AtomicInteger(EXCEEDS_LIMIT);
+        int length = word.length();
+        int widestGap = Math.max(length, dict.lengthBuckets.length - 1 - length);
+        for (int gap = 0; gap <= widestGap; gap++) {
+            if (gap > (distMax >= 0 ? distMax : best.cutoff())) {
+                break;
+            }
+            scanBucket(dict, word, n, distMax, length - gap, best, cutoff);
+            if (gap > 0) {
+                scanBucket(dict, word, n, distMax, length + gap, best, cutoff);
+            }
+        }
+        return best;
+    }
+
+    private void scanBucket (DictionarySnapshot dict, String word, int n, int distMax, int length, TopN best,
+                             AtomicInteger sharedCutoff) {
+
+        if (length < 0 || length >= dict.lengthBuckets.length || dict.lengthBuckets[length] == null) {
+            return;
+        }
+        int[] ids = dict.lengthBuckets[length];
+        int to = dict.bucketSizes[length];
+        if (parallel && to > SCAN_TASK_SIZE) {
+            best.addAll(ForkJoinPool.commonPool().invoke(new ScanTask(dict, word, n, distMax, ids, 0, to, sharedCutoff)));
+            sharedCutoff.accumulateAndGet(best.cutoff(), Math::min);
+        } else {
+            scanRange(dict, word, distMax, ids, 0, to, best, sharedCutoff);
+        }
+    }
+
+    /**
+     * Scans the words with ids[from, to) into best. Whenever best's cutoff
+     * improves on the one shared by every range of the query it is
+     * published, and each comparison is bounded by the tighter of the two:
+     * n words within the shared cutoff have been found somewhere, so no
+     * word further away can be among the n best overall.
+     */
+    private void scanRange (DictionarySnapshot dict, String word, int distMax, int[] ids, int from, int to, TopN best,
+                            AtomicInteger sharedCutoff) {
+
+        String[] words = dict.wordsById;
+        for (int i = from; i < to; i++) {
+            int id = ids[i];
+            int limit = distMax >= 0 ? distMax : Math.min(best.cutoff(), sharedCutoff.get());
+            int currEditDist = editDistanceWithin(word, words[id], limit);
+            if (currEditDist == EXCEEDS_LIMIT) {
+                continue;
+            }
+            Integer frequency = dict.frequency(words[id]);
+            if (frequency == null) {
+                continue; // Removed from the dictionary
+            }
+            best.offer(id, distMax >= 0 ? 0 : currEditDist, frequency);
+            if (distMax < 0 && best.cutoff() < sharedCutoff.get()) {
+                sharedCutoff.accumulateAndGet(best.cutoff(), Math::min);
+            }
+        }
+    }
+
+    /**
+     * Splits a scan in halves down to SCAN_TASK_SIZE words, merging the
+     * halves' heaps on the way back up.
+     */
+    private final class ScanTask extends RecursiveTask<TopN> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final DictionarySnapshot dict;
+        private final String word;
+        private final int n;
+        private final int distMax;
+        private final int[] ids;
+        private final int from;
+        private final int to;
+        private final AtomicInteger sharedCutoff;
+
+        ScanTask (DictionarySnapshot dict, String word, int n, int distMax, int[] ids, int from, int to,
+                  AtomicInteger sharedCutoff) {
+            this.dict = dict;
+            this.word = word;
+            this.n = n;
+            this.distMax = distMax;
+            this.ids = ids;
+            this.from = from;
+            this.to = to;
+            this.sharedCutoff = sharedCutoff;
+        }
+
+        @Override
+        protected TopN compute () {
+
+            if (to - from <= SCAN_TASK_SIZE) {
+                TopN best = new TopN(n, dict.wordsById);
+                scanRange(dict, word, distMax, ids, from, to, best, sharedCutoff);
+                return best;
+            }
+            int middle = (from + to) >>> 1;
+            ScanTask upper = new ScanTask(dict, word, n, distMax, ids, middle, to, sharedCutoff);
+            upper.fork();
+            TopN best = new ScanTask(dict, word, n, distMax, ids, from, middle, sharedCutoff).compute();
+            best.addAll(upper.join());
+            return best;
+        }
+    }
+
+    /**
+     * Returns the BK-tree over every word ever in the dictionary, building it
+     * on first use so that constructing a SpellEx only for
+     * getNBestUnderDistance stays cheap. Holding the lock, no word can be
+     * added while it is built.
+     */
+    private BKTree bkTree () {
+
+        BKTree tree = bkTree;
+        if (tree == null) {
+            synchronized (this) {
+                tree = bkTree;
+                if (tree == null) {
+                    DictionarySnapshot current = dict;
+                    tree = new BKTree(Arrays.asList(current.wordsById).subList(0, current.wordCount));
+                    bkTree = tree;
+                }
+            }
+        }
+        return tree;
+    }
     /**
      * Creates a class used to compare two words in the given dictionary
      */
@@ -218,34 +581,166 @@ public class SpellEx {
      * distMax or less that have the highest frequency.
      */
     public Set<String> getNBestUnderDistance (String word, int n, int distMax) {
+        return cached(QueryCache.BEST_UNDER_DISTANCE, word, n, distMax, () -> computeNBestUnderDistance(word, n, distMax));
+    }
+
+    private Set<String> computeNBestUnderDistance (String word, int n, int distMax) {
+
+        // At least one round of edits has always been applied, even for a distMax below 1:
+        int distance = Math.max(1, distMax);
+        DictionarySnapshot dict = this.dict;
+        if (!indexed) {
+            return scanNBestUnderDistance(dict, word, n, distance);
+        }
+        SymSpellIndex index = symSpellIndex(dict, distance);
+        List<String> candidates = index.candidates(word, distance);
+        // Words added since the index was built are checked directly:
+        for (int id = index.getWordCount(); id < dict.wordCount; id++) {
+            candidates.add(dict.wordsById[id]);
+        }
+        List<givenWordTieBreaker> matches = new ArrayList<>();
+        for (String candidate : candidates) {
+            Integer frequency = dict.frequency(candidate); // Null if removed, or added after this snapshot
+            if (frequency != null && editDistanceWithin(word, candidate, distance) != EXCEEDS_LIMIT) {
+                matches.add(new givenWordTieBreaker(candidate, 0, frequency));
+            }
+        }
+
+        Collections.sort(matches);
+        Set<String> output = new HashSet<>();
+        for (int i = 0; i < Math.min(n, matches.size()); i++) {
+            output.add(matches.get(i).givenWord);
+        }
+        return output;
+    }
+
+    /**
+     * Keeps the n most frequent dictionary words within distance of word,
+     * all ranked as if at distance 0 so that only frequency and spelling
+     * break ties.
+     */
+    private Set<String> scanNBestUnderDistance (DictionarySnapshot dict, String word, int n, int distance) {
+
+        if (n <= 0 || dict.size() == 0) {
+            return new HashSet<>();
+        }
+        return scan(dict, word, Math.min(n, dict.size()), distance).toSet();
+    }
+
+    /**
+     * Returns the cached result of the given query if there is one, and
+     * otherwise runs it and caches its result.
+     */
+    private Set<String> cached (int method, String word, int n, int distMax, Supplier<Set<String>> query) {
+
+        QueryCache cache = queryCache;
+        if (cache == null) {
+            return query.get();
+        }
+        QueryCache.Key key = new QueryCache.Key(method, word, n, distMax);
+        long version = cache.getVersion(); // Read first, so a result computed across an invalidation is never fresh
+        Set<String> output = cache.get(key);
+        if (output == null) {
+            output = query.get();
+            cache.put(key, output, version);
+        }
+        return output;
+    }
 
-        Set<String> possibleWordList = new HashSet<>();
-        possibleWordList.add(word);
+    /**
+     * Sets how many recent query results are kept, so that repeated queries
+     * (common misspellings, mostly) are answered by a hash lookup. Results
+     * are evicted by W-TinyLFU: those asked for most often recently stay.
+     * Replaces the current cache and its statistics.
+     * @param maxEntries The most results to keep; 0 disables caching
+     */
+    public void setCacheSize (int maxEntries) {
 
-        getInitialInsertionWords(word, possibleWordList, LETTERS);
-        getInitialDeletionWords(word, possibleWordList);
-        getInitialReplacementWords(word, possibleWordList, LETTERS);
-        if (word.length() > 1) {
-            getInitialTranspositionWords(word, possibleWordList);
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("maxEntries must not be negative");
         }
+        queryCache = maxEntries == 0 ? null : new QueryCache(maxEntries);
+    }
 
-        Set<String> tempWordList = new HashSet<>();
+    /**
+     * @return Hit and miss counts of the query cache since it was created,
+     * or all zeros if caching is disabled
+     */
+    public CacheStats getCacheStats () {
+
+        QueryCache cache = queryCache;
+        return cache == null ? new CacheStats() : cache.getStats();
+    }
 
-        if (distMax > 1) {
-            for (int count = 1; count < distMax; count++) {
+    /**
+     * Summary of the query cache's effectiveness.
+     */
+    public static class CacheStats {
 
-                getInsertionWords(possibleWordList, tempWordList, LETTERS);
-                getDeletionWords(possibleWordList, tempWordList);
-                getReplacementWords(possibleWordList, tempWordList, LETTERS);
-                getTranspositionWords(possibleWordList, tempWordList);
+        long hits;
+        long misses;
+        long evictions;
+        int size;
 
-                possibleWordList.addAll(tempWordList);
-                tempWordList.clear();
+        public long getHits () {
+            return hits;
+        }
+
+        public long getMisses () {
+            return misses;
+        }
+
+        public long getEvictions () {
+            return evictions;
+        }
+
+        public int getSize () {
+            return size;
+        }
+
+        /**
+         * @return The fraction of lookups that were hits, or 0.0 if there were none
+         */
+        public double getHitRate () {
+            return hits + misses == 0 ? 0.0 : (double) hits / (hits + misses);
+        }
+
+        @Override
+        public String toString () {
+            return String.format("%d hits, %d misses (hit rate %.3f), %d evictions, %d cached",
+                    hits, misses, getHitRate(), evictions, size);
+        }
+    }
+
+    /**
+     * Returns a symmetric delete index over the dictionary's words covering
+     * at least the given distance, building (or widening) it when needed.
+     */
+    private SymSpellIndex symSpellIndex (DictionarySnapshot dict, int distance) {
+
+        SymSpellIndex index = symSpellIndex;
+        if (needsRebuild(index, dict, distance)) {
+            synchronized (this) {
+                index = symSpellIndex;
+                if (needsRebuild(index, dict, distance)) {
+                    DictionarySnapshot current = this.dict;
+                    index = new SymSpellIndex(Arrays.copyOf(current.wordsById, current.wordCount),
+                            Math.max(distance, index == null ? 0 : index.getMaxDistance()));
+                    symSpellIndex = index;
+                }
             }
         }
-        possibleWordList = filterWords(possibleWordList, n);
+        return index;
+    }
 
-        return possibleWordList;
+    private static boolean needsRebuild (SymSpellIndex index, DictionarySnapshot dict, int distance) {
+
+        if (index == null || index.getMaxDistance() < distance) {
+            return true;
+        }
+        // Words added since it was built each cost a full comparison per query:
+        int indexed = index.getWordCount();
+        return dict.wordCount - indexed > Math.max(UNINDEXED_WORDS_MIN, indexed / 4);
     }
 
 
@@ -379,9 +874,11 @@ public class SpellEx {
         Map<String, Integer> frequencyMap = new HashMap<>();
         PriorityQueue<givenWordTieBreaker> wordPriorityQueue = new PriorityQueue<>();
 
+        DictionarySnapshot dict = this.dict;
         for (String curr : possibleWordList) {
-            if ( dict.containsKey(curr) ) {
-                frequencyMap.put(curr, dict.get(curr));
+            Integer frequency = dict.frequency(curr);
+            if ( frequency != null ) {
+                frequencyMap.put(curr, frequency);
             }
         }
 
@@ -0,0 +1,158 @@
+package main.spellex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A symmetric delete (SymSpell) index over dictionary words, used by
+ * SpellEx.getNBestUnderDistance to find the words within a small edit
+ * distance of a query without generating every insertion, replacement and
+ * transposition of it. Two words within distance d (even allowing the
+ * transposed pairs to be edited further) keep a common subsequence after
+ * deleting at most d characters from each, so indexing every such deletion
+ * of the dictionary's words and looking up the deletions of the query finds
+ * all of them, plus some false positives that the caller verifies.
+ * <p>
+ * Deletions are only taken from the first PREFIX_LENGTH characters of a
+ * word (the same argument holds for prefixes), which bounds the index to at
+ * most 2^PREFIX_LENGTH entries per word however long it is. Entries are
+ * hashes rather than Strings, packed with the word's index into sorted
+ * longs, so the whole index is two primitive arrays; hash collisions only
+ * add false positives.
+ */
+final class SymSpellIndex {
+
+    private static final int PREFIX_LENGTH = 7;
+
+    private final String[] words;
+    private final int maxDistance;
+    // Unique deletion hashes, sorted, and the indices into words of the words
+    // having each one: wordIds[starts[h], starts[h + 1])
+    private final long[] hashes;
+    private final int[] starts;
+    private final int[] wordIds;
+    // Low bits of a packed entry holding the word index; the rest hold the hash
+    private final long idMask;
+
+    /**
+     * Indexes every deletion of up to maxDistance characters of every word.
+     */
+    SymSpellIndex (String[] words, int maxDistance) {
+
+        this.words = words;
+        this.maxDistance = maxDistance;
+        int idBits = Math.max(1, 64 - Long.numberOfLeadingZeros(Math.max(1, words.length - 1)));
+        this.idMask = (1L << idBits) - 1;
+
+        long[] entries = new long[16];
+        int entryCount = 0;
+        for (int id = 0; id < words.length; id++) {
+            String word = words[id];
+            int prefixLength = Math.min(PREFIX_LENGTH, word.length());
+            for (int deleted = 0; deleted < (1 << prefixLength); deleted++) {
+                if (Integer.bitCount(deleted) <= maxDistance) {
+                    if (entryCount == entries.length) {
+                        entries = Arrays.copyOf(entries, entryCount * 2);
+                    }
+                    entries[entryCount++] = (hash(word, prefixLength, deleted) & ~idMask) | id;
+                }
+            }
+        }
+        Arrays.sort(entries, 0, entryCount);
+
+        // Splits the sorted entries into one run of word indices per unique hash:
+        long[] uniqueHashes = new long[16];
+        int[] runStarts = new int[17];
+        int[] ids = new int[entryCount];
+        int hashCount = 0;
+        int idCount = 0;
+        for (int i = 0; i < entryCount; i++) {
+            if (i > 0 && entries[i] == entries[i - 1]) {
+                continue; // The same deletion reached twice, as in "aab"
+            }
+            long hash = entries[i] & ~idMask;
+            if (hashCount == 0 || uniqueHashes[hashCount - 1] != hash) {
+                if (hashCount == uniqueHashes.length) {
+                    uniqueHashes = Arrays.copyOf(uniqueHashes, hashCount * 2);
+                    runStarts = Arrays.copyOf(runStarts, hashCount * 2 + 1);
+                }
+                uniqueHashes[hashCount] = hash;
+                runStarts[hashCount++] = idCount;
+            }
+            ids[idCount++] = (int) (entries[i] & idMask);
+        }
+        runStarts[hashCount] = idCount;
+        this.hashes = Arrays.copyOf(uniqueHashes, hashCount);
+        this.starts = Arrays.copyOf(runStarts, hashCount + 1);
+        this.wordIds = Arrays.copyOf(ids, idCount);
+    }
+
+    /**
+     * @return The largest distance this index finds every candidate for.
+     */
+    int getMaxDistance () {
+        return maxDistance;
+    }
+
+    /**
+     * @return The number of words indexed.
+     */
+    int getWordCount () {
+        return words.length;
+    }
+
+    /**
+     * Returns every indexed word that may be within the given distance of
+     * word: all of those that are, and some that are not.
+     * @param distance At most getMaxDistance.
+     */
+    List<String> candidates (String word, int distance) {
+
+        int prefixLength = Math.min(PREFIX_LENGTH, word.length());
+        int[] found = new int[16];
+        int foundCount = 0;
+        for (int deleted = 0; deleted < (1 << prefixLength); deleted++) {
+            if (Integer.bitCount(deleted) > distance) {
+                continue;
+            }
+            int h = Arrays.binarySearch(hashes, hash(word, prefixLength, deleted) & ~idMask);
+            if (h >= 0) {
+                int runLength = starts[h + 1] - starts[h];
+                if (foundCount + runLength > found.length) {
+                    found = Arrays.copyOf(found, Math.max(found.length * 2, foundCount + runLength));
+                }
+                System.arraycopy(wordIds, starts[h], found, foundCount, runLength);
+                foundCount += runLength;
+            }
+        }
+
+        Arrays.sort(found, 0, foundCount);
+        List<String> candidates = new ArrayList<>();
+        for (int i = 0; i < foundCount; i++) {
+            if (i == 0 || found[i] != found[i - 1]) {
+                candidates.add(words[found[i]]);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Hashes the first prefixLength characters of word, skipping those whose
+     * bit is set in deleted.
+     */
+    private static long hash (String word, int prefixLength, int deleted) {
+
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < prefixLength; i++) {
+            if ((deleted & (1 << i)) == 0) {
+                hash = (hash ^ word.charAt(i)) * 0x100000001b3L;
+            }
+        }
+        // Spreads the low bits into the high ones the packed entries keep
+        hash ^= hash >>> 29;
+        hash *= 0xbf58476d1ce4e5b9L;
+        return hash ^ (hash >>> 32);
+    }
+
+}
@@ -0,0 +1,136 @@
+package main.spellex;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A bounded max-heap keeping the n best of the words offered to it, in the
+ * order of givenWordTieBreaker (smaller distance, then larger frequency,
+ * then alphabetical), without an object per word: entries are parallel int
+ * arrays of ids into a shared word array, distances and frequencies, with
+ * the worst entry kept at the root so it can be evicted in O(log n).
+ */
+final class TopN {
+
+    private final String[] words;
+    private final int[] ids;
+    private final int[] distances;
+    private final int[] frequencies;
+    private int size;
+
+    /**
+     * @param capacity The number of best entries to keep, at least 1
+     * @param words The words that offered ids refer to
+     */
+    TopN (int capacity, String[] words) {
+
+        this.words = words;
+        ids = new int[capacity];
+        distances = new int[capacity];
+        frequencies = new int[capacity];
+    }
+
+    /**
+     * Offers words[id], keeping it if it is among the n best so far.
+     */
+    void offer (int id, int distance, int frequency) {
+
+        if (size < ids.length) {
+            set(size, id, distance, frequency);
+            siftUp(size++);
+        } else if (ranksAfter(0, distance, frequency, id)) {
+            set(0, id, distance, frequency);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * @return The largest distance a word can have and still be kept once
+     *         the heap is full (an equally distant word may still win on
+     *         frequency), or SpellEx.EXCEEDS_LIMIT while it is not
+     */
+    int cutoff () {
+        return size < ids.length ? SpellEx.EXCEEDS_LIMIT : distances[0];
+    }
+
+    /**
+     * Offers every entry of other, which must share this heap's word array.
+     */
+    void addAll (TopN other) {
+
+        for (int i = 0; i < other.size; i++) {
+            offer(other.ids[i], other.distances[i], other.frequencies[i]);
+        }
+    }
+
+    Set<String> toSet () {
+
+        Set<String> output = new HashSet<>();
+        for (int i = 0; i < size; i++) {
+            output.add(words[ids[i]]);
+        }
+        return output;
+    }
+
+    private void set (int slot, int id, int distance, int frequency) {
+        ids[slot] = id;
+        distances[slot] = distance;
+        frequencies[slot] = frequency;
+    }
+
+    /**
+     * @return True if the entry in slot ranks after the given one
+     */
+    private boolean ranksAfter (int slot, int distance, int frequency, int id) {
+
+        if (distances[slot] != distance) {
+            return distances[slot] > distance;
+        }
+        if (frequencies[slot] != frequency) {
+            return frequencies[slot] < frequency;
+        }
+        return words[ids[slot]].compareTo(words[id]) > 0;
+    }
+
+    private void siftUp (int slot) {
+
+        while (slot > 0) {
+            int parent = (slot - 1) >>> 1;
+            if (!ranksAfter(slot, distances[parent], frequencies[parent], ids[parent])) {
+                return;
+            }
+            swap(slot, parent);
+            slot = parent;
+        }
+    }
+
+    private void siftDown (int slot) {
+
+        while (true) {
+            int worst = slot;
+            int left = 2 * slot + 1;
+            int right = left + 1;
+            if (left < size && ranksAfter(left, distances[worst], frequencies[worst], ids[worst])) {
+                worst = left;
+            }
+            if (right < size && ranksAfter(right, distances[worst], frequencies[worst], ids[worst])) {
+                worst = right;
+            }
+            if (worst == slot) {
+                return;
+            }
+            swap(slot, worst);
+            slot = worst;
+        }
+    }
+
+    private void swap (int a, int b) {
+
+        int id = ids[a];
+        int distance = distances[a];
+        int frequency = frequencies[a];
+        set(a, ids[b], distances[b], frequencies[b]);
+        set(b, id, distance, frequency);
+    }
+
+}
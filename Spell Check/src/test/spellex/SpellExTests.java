@@ -213,6 +213,352 @@ public class SpellExTests {
         assertEquals(new HashSet<String>(Arrays.asList("chrysanthemum", "chrysanthemums")), se.getNBestUnderDistance("chysanthemum", 5, 2));
     }
     
-    // ... more for you to test!
+    /**
+     * Index tests: the indexed queries must return exactly what an
+     * exhaustive scan of the dictionary would
+     */
+    
+    /**
+     * Returns the n words of dict closest to word by exhaustively ranking
+     * every word by edit distance, then frequency, then alphabetic order
+     */
+    public static Set<String> scanNLeastDistant (Map<String, Integer> dict, String word, int n) {
+        List<String> words = new ArrayList<>(dict.keySet());
+        Map<String, Integer> dists = new HashMap<>();
+        for (String w : words) {
+            dists.put(w, editDistance(word, w));
+        }
+        words.sort((a, b) -> !dists.get(a).equals(dists.get(b)) ? dists.get(a) - dists.get(b)
+                : !dict.get(a).equals(dict.get(b)) ? dict.get(b) - dict.get(a) : a.compareTo(b));
+        return new HashSet<String>(words.subList(0, Math.min(n, words.size())));
+    }
+    
+    /**
+     * Returns a dictionary of size random words over the first alphabetSize letters
+     */
+    public static Map<String, Integer> randomDict (long seed, int size, int alphabetSize) {
+        Random random = new Random(seed);
+        Map<String, Integer> dict = new HashMap<>();
+        while (dict.size() < size) {
+            dict.put(randomWord(random, alphabetSize), 1 + random.nextInt(5));
+        }
+        return dict;
+    }
+    
+    public static String randomWord (Random random, int alphabetSize) {
+        StringBuilder word = new StringBuilder();
+        int length = 1 + random.nextInt(8);
+        for (int i = 0; i < length; i++) {
+            word.append((char) ('a' + random.nextInt(alphabetSize)));
+        }
+        return word.toString();
+    }
+    
+    @Test
+    public void LeastDistantTest_index_t0() {
+        // "ca" -> "abc" is 3 edits, but only 2 if the transposed pair could then be edited
+        Map<String, Integer> dict = new HashMap<>();
+        dict.put("abc", 1);
+        dict.put("ac", 1);
+        dict.put("zzz", 2);
+        dict.put("cab", 1);
+        SpellEx se = new SpellEx(dict);
+        assertEquals(new HashSet<String>(Arrays.asList("ac")), se.getNLeastDistant("ca", 1));
+        assertEquals(new HashSet<String>(Arrays.asList("ac", "cab", "zzz")), se.getNLeastDistant("ca", 3));
+        assertEquals(new HashSet<String>(Arrays.asList("ac", "cab", "zzz", "abc")), se.getNLeastDistant("ca", 10));
+    }
+    
+    @Test
+    public void LeastDistantTest_index_t1() {
+        Map<String, Integer> dict = randomDict(41, 2000, 4);
+        SpellEx se = new SpellEx(dict);
+        Random random = new Random(42);
+        for (int i = 0; i < 100; i++) {
+            String word = randomWord(random, 5);
+            int n = 1 + random.nextInt(6);
+            assertEquals(scanNLeastDistant(dict, word, n), se.getNLeastDistant(word, n));
+        }
+    }
+    
+    /**
+     * Returns the n most frequent words of dict within distMax of word, by
+     * exhaustively checking the edit distance to every word
+     */
+    public static Set<String> scanNBestUnderDistance (Map<String, Integer> dict, String word, int n, int distMax) {
+        List<String> words = new ArrayList<>();
+        for (String w : dict.keySet()) {
+            if (editDistance(word, w) <= distMax) {
+                words.add(w);
+            }
+        }
+        words.sort((a, b) -> !dict.get(a).equals(dict.get(b)) ? dict.get(b) - dict.get(a) : a.compareTo(b));
+        return new HashSet<String>(words.subList(0, Math.min(n, words.size())));
+    }
+    
+    @Test
+    public void NBestUnderDistanceTest_index_t0() {
+        // Edits past the indexed prefix of long words
+        Map<String, Integer> dict = new HashMap<>();
+        dict.put("chrysanthemum", 3);
+        dict.put("chrysanthemums", 1);
+        dict.put("chrysalis", 7);
+        dict.put("anthem", 9);
+        SpellEx se = new SpellEx(dict);
+        assertEquals(new HashSet<String>(Arrays.asList("chrysanthemum", "chrysanthemums")), se.getNBestUnderDistance("chysanthemum", 5, 2));
+        assertEquals(new HashSet<String>(Arrays.asList("chrysanthemum")), se.getNBestUnderDistance("chrysanthemmu", 5, 1));
+        assertEquals(new HashSet<String>(Arrays.asList("chrysanthemums")), se.getNBestUnderDistance("chrysanthemumss", 5, 1));
+    }
+    
+    @Test
+    public void NBestUnderDistanceTest_index_t1() {
+        Map<String, Integer> dict = randomDict(43, 2000, 4);
+        SpellEx se = new SpellEx(dict);
+        Random random = new Random(44);
+        for (int i = 0; i < 100; i++) {
+            String word = randomWord(random, 5);
+            int n = 1 + random.nextInt(6);
+            int distMax = 1 + random.nextInt(3);
+            assertEquals(scanNBestUnderDistance(dict, word, n, distMax), se.getNBestUnderDistance(word, n, distMax));
+        }
+    }
+    
+    @Test
+    public void editDist_engine_t0() {
+        // Words longer than 64 characters span several bit-parallel blocks
+        String a = "abcdefghij".repeat(7);
+        String b = a.substring(0, 30) + a.charAt(31) + a.charAt(30) + a.substring(32) + "xy";
+        assertEquals(3, editDistance(a, b));
+        assertEquals(3, editDistance(b, a));
+        assertEquals(70, editDistance(a, ""));
+        assertEquals(1, editDistance(a + "q", a));
+        assertEquals(3, editDistance("ca", "abc")); // No editing between the transposed pair
+    }
+    
+    @Test
+    public void editDist_engine_t1() {
+        Random random = new Random(45);
+        DistanceEngine engine = getDistanceEngine();
+        try {
+            for (int i = 0; i < 500; i++) {
+                String s0 = randomWord(random, 4).repeat(1 + random.nextInt(30));
+                String s1 = random.nextBoolean() ? s0.substring(random.nextInt(s0.length())) + randomWord(random, 4)
+                                                 : randomWord(random, 4).repeat(1 + random.nextInt(30));
+                setDistanceEngine(DistanceEngine.TABLE);
+                int expected = editDistance(s0, s1);
+                setDistanceEngine(DistanceEngine.BIT_PARALLEL);
+                assertEquals(expected, editDistance(s0, s1));
+            }
+        } finally {
+            setDistanceEngine(engine);
+        }
+    }
+    
+    @Test
+    public void editDistWithin_t0() {
+        assertEquals(0, editDistanceWithin("abc", "abc", 0));
+        assertEquals(1, editDistanceWithin("bar", "bra", 1));
+        assertEquals(3, editDistanceWithin("cat", "dog", 3));
+        assertEquals(EXCEEDS_LIMIT, editDistanceWithin("cat", "dog", 2));
+        assertEquals(EXCEEDS_LIMIT, editDistanceWithin("ab", "abcdef", 3));
+        assertEquals(EXCEEDS_LIMIT, editDistanceWithin("a", "a", -1));
+        assertEquals(4, editDistanceWithin("ab", "abcdef", Integer.MAX_VALUE));
+    }
+    
+    @Test
+    public void editDistWithin_t1() {
+        Random random = new Random(46);
+        for (int i = 0; i < 2000; i++) {
+            String s0 = randomWord(random, 3) + randomWord(random, 3);
+            String s1 = randomWord(random, 3) + randomWord(random, 3);
+            int k = random.nextInt(8);
+            int distance = editDistance(s0, s1);
+            assertEquals(distance <= k ? distance : EXCEEDS_LIMIT, editDistanceWithin(s0, s1, k));
+        }
+    }
+    
+    @Test
+    public void editDist_engine_t2() {
+        String[][] pairs = { {"", ""}, {"", "abc"}, {"ab", "ba"}, {"bar", "bra"}, {"cat", "dog"},
+                             {"ca", "abc"}, {"kitten", "sitting"}, {"abcdefghij".repeat(8), "bacdefghij".repeat(8)} };
+        int[] expected = { 0, 3, 1, 1, 3, 3, 3, 8 };
+        DistanceEngine engine = getDistanceEngine();
+        try {
+            for (DistanceEngine each : DistanceEngine.values()) {
+                setDistanceEngine(each);
+                for (int i = 0; i < pairs.length; i++) {
+                    assertEquals(each + " " + pairs[i][0], expected[i], editDistance(pairs[i][0], pairs[i][1]));
+                    assertEquals(each + " " + pairs[i][1], expected[i], editDistance(pairs[i][1], pairs[i][0]));
+                }
+            }
+        } finally {
+            setDistanceEngine(engine);
+        }
+    }
+    
+    @Test
+    public void LeastDistantTest_scan_t0() {
+        SpellEx se = new SpellEx(tinyDict, false);
+        assertEquals(new HashSet<String>(Arrays.asList("ab")), se.getNLeastDistant("ab", 1));
+        assertEquals(new HashSet<String>(Arrays.asList("bat")), se.getNLeastDistant("ba", 1));
+        assertEquals(new HashSet<String>(), se.getNLeastDistant("ba", 0));
+        assertEquals(tinyDict.keySet(), se.getNLeastDistant("ba", tinyDict.size() + 5));
+    }
+    
+    @Test
+    public void LeastDistantTest_scan_t1() {
+        Map<String, Integer> dict = randomDict(47, 2000, 4);
+        SpellEx se = new SpellEx(dict, false);
+        Random random = new Random(48);
+        for (int i = 0; i < 100; i++) {
+            String word = randomWord(random, 5);
+            int n = 1 + random.nextInt(10);
+            assertEquals(scanNLeastDistant(dict, word, n), se.getNLeastDistant(word, n));
+        }
+    }
+    
+    @Test
+    public void NBestUnderDistanceTest_scan_t0() {
+        Map<String, Integer> dict = randomDict(49, 2000, 4);
+        SpellEx se = new SpellEx(dict, false);
+        Random random = new Random(50);
+        for (int i = 0; i < 100; i++) {
+            String word = randomWord(random, 5);
+            int n = 1 + random.nextInt(6);
+            int distMax = 1 + random.nextInt(3);
+            assertEquals(scanNBestUnderDistance(dict, word, n, distMax), se.getNBestUnderDistance(word, n, distMax));
+        }
+    }
+    
+    @Test
+    public void LeastDistantTest_parallel_t0() {
+        // Large enough to be split into several scan tasks
+        Map<String, Integer> dict = randomDict(51, 30000, 6);
+        SpellEx serial = new SpellEx(dict, false);
+        SpellEx parallel = new SpellEx(dict, false, true);
+        Random random = new Random(52);
+        for (int i = 0; i < 20; i++) {
+            String word = randomWord(random, 7);
+            int n = 1 + random.nextInt(20);
+            assertEquals(serial.getNLeastDistant(word, n), parallel.getNLeastDistant(word, n));
+            assertEquals(serial.getNBestUnderDistance(word, n, 2), parallel.getNBestUnderDistance(word, n, 2));
+        }
+    }
+    
+    @Test
+    public void LeastDistantTest_scan_t2() {
+        // Words of many lengths, so that scans cross several length buckets
+        Map<String, Integer> dict = randomDict(53, 1000, 3);
+        Random random = new Random(54);
+        for (int i = 0; i < 300; i++) {
+            dict.put(randomWord(random, 3).repeat(2 + random.nextInt(4)), 1 + random.nextInt(5));
+        }
+        SpellEx se = new SpellEx(dict, false);
+        for (int i = 0; i < 100; i++) {
+            String word = randomWord(random, 4).repeat(1 + random.nextInt(4));
+            int n = 1 + random.nextInt(10);
+            int distMax = 1 + random.nextInt(3);
+            assertEquals(scanNLeastDistant(dict, word, n), se.getNLeastDistant(word, n));
+            assertEquals(scanNBestUnderDistance(dict, word, n, distMax), se.getNBestUnderDistance(word, n, distMax));
+        }
+    }
+    
+    @Test
+    public void cache_t0() {
+        SpellEx se = new SpellEx(tinyDict);
+        Set<String> first = se.getNLeastDistant("ba", 2);
+        first.add("mutated");
+        assertEquals(new HashSet<String>(Arrays.asList("bat", "ab")), se.getNLeastDistant("ba", 2));
+        assertEquals(new HashSet<String>(Arrays.asList("bat", "ab")), se.getNLeastDistant("ba", 2));
+        assertEquals(new HashSet<String>(Arrays.asList("bat")), se.getNLeastDistant("ba", 1));
+        assertEquals(new HashSet<String>(Arrays.asList("bat")), se.getNBestUnderDistance("ba", 1, 1));
+        assertEquals(new HashSet<String>(Arrays.asList("cat")), se.getNBestUnderDistance("ba", 1, 2));
+        CacheStats stats = se.getCacheStats();
+        assertEquals(2, stats.getHits());
+        assertEquals(4, stats.getMisses());
+        assertEquals(4, stats.getSize());
+        assertEquals(1.0 / 3, stats.getHitRate(), 1e-9);
+    }
+    
+    @Test
+    public void cache_t1() {
+        Map<String, Integer> dict = randomDict(55, 500, 4);
+        SpellEx se = new SpellEx(dict);
+        se.setCacheSize(50);
+        Random random = new Random(56);
+        for (int i = 0; i < 400; i++) {
+            // Half of the queries repeat a few common words
+            String word = i % 2 == 0 ? "ab".repeat(1 + i % 6) : randomWord(random, 5);
+            assertEquals(scanNLeastDistant(dict, word, 3), se.getNLeastDistant(word, 3));
+        }
+        CacheStats stats = se.getCacheStats();
+        assertTrue(stats.getSize() <= 50);
+        assertTrue(stats.getHits() >= 150);
+        
+        se.setCacheSize(0);
+        se.getNLeastDistant("ab", 3);
+        assertEquals(0, se.getCacheStats().getHits() + se.getCacheStats().getMisses());
+    }
+    
+    @Test
+    public void mutable_t0() {
+        for (SpellEx se : new SpellEx[] { new SpellEx(tinyDict), new SpellEx(tinyDict, false) }) {
+            assertEquals(new HashSet<String>(Arrays.asList("bat")), se.getNLeastDistant("ba", 1));
+            se.addWord("ba", 1);
+            assertEquals(7, se.size());
+            assertEquals(new HashSet<String>(Arrays.asList("ba")), se.getNLeastDistant("ba", 1));
+            assertTrue(se.removeWord("ba"));
+            assertFalse(se.removeWord("ba"));
+            assertEquals(new HashSet<String>(Arrays.asList("bat")), se.getNLeastDistant("ba", 1));
+            assertEquals(new HashSet<String>(Arrays.asList("bat")), se.getNBestUnderDistance("ba", 1, 1));
+            assertEquals(4, se.incrementFrequency("ab", 3));
+            assertEquals(new HashSet<String>(Arrays.asList("ab")), se.getNBestUnderDistance("ba", 1, 1));
+            assertEquals(5, se.incrementFrequency("bar", 5));
+            assertEquals(new HashSet<String>(Arrays.asList("bar", "ab")), se.getNLeastDistant("ba", 2));
+            assertEquals(7, se.size());
+        }
+    }
+    
+    @Test
+    public void mutable_t1() {
+        Map<String, Integer> dict = randomDict(57, 300, 4);
+        SpellEx[] spellers = { new SpellEx(dict), new SpellEx(dict, false) };
+        Random random = new Random(58);
+        for (int i = 0; i < 300; i++) {
+            String word = randomWord(random, 4);
+            int op = random.nextInt(4);
+            if (op == 0) {
+                dict.put(word, 1 + random.nextInt(5));
+                for (SpellEx se : spellers) {
+                    se.addWord(word, dict.get(word));
+                }
+            } else if (op == 1) {
+                boolean present = dict.remove(word) != null;
+                for (SpellEx se : spellers) {
+                    assertEquals(present, se.removeWord(word));
+                }
+            } else {
+                int n = 1 + random.nextInt(5);
+                for (SpellEx se : spellers) {
+                    assertEquals(dict.size(), se.size());
+                    assertEquals(scanNLeastDistant(dict, word, n), se.getNLeastDistant(word, n));
+                    assertEquals(scanNBestUnderDistance(dict, word, n, 2), se.getNBestUnderDistance(word, n, 2));
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void mutable_t2() {
+        for (SpellEx se : new SpellEx[] { new SpellEx(tinyDict), new SpellEx(tinyDict, false) }) {
+            assertEquals(1, se.incrementFrequency("ab", 0));
+            assertEquals(Integer.MAX_VALUE, se.incrementFrequency("ab", Integer.MAX_VALUE));
+            try {
+                se.incrementFrequency("ab", -1);
+                fail("Expected IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+                assertEquals(Integer.MAX_VALUE, se.incrementFrequency("ab", 0));
+            }
+        }
+    }
     
 }
\ No newline at end of file